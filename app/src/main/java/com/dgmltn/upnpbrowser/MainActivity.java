@@ -16,6 +16,11 @@
 
 package com.dgmltn.upnpbrowser;
 
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import android.content.Context;
+import android.net.wifi.WifiManager;
 import android.os.Bundle;
 import android.support.v7.app.ActionBarActivity;
 import android.support.v7.widget.LinearLayoutManager;
@@ -29,16 +34,27 @@ import android.view.animation.DecelerateInterpolator;
 
 import butterknife.Bind;
 import butterknife.ButterKnife;
+import rx.Observable;
 import rx.android.schedulers.AndroidSchedulers;
 import rx.functions.Action1;
 import rx.functions.Func1;
 import rx.schedulers.Schedulers;
+import rx.subscriptions.CompositeSubscription;
 
 public class MainActivity extends ActionBarActivity {
 
 	private static final String TAG = MainActivity.class.getSimpleName();
 
+	// About six frames: short enough to look instant, long enough to batch a
+	// burst of search replies into a single layout pass
+	private static final long UPDATE_WINDOW_MILLIS = 100;
+
 	UPnPDeviceAdapter mAdapter;
+	UPnPDeviceRegistry mRegistry;
+	UPnPDescriptionFetcher mFetcher;
+	UPnPActionCatalogFetcher mCatalogFetcher;
+	CompositeSubscription mSubscriptions;
+	WifiManager.MulticastLock mMulticastLock;
 
 	@Bind(R.id.recycler)
 	protected RecyclerView vRecycler;
@@ -52,7 +68,15 @@ public class MainActivity extends ActionBarActivity {
 		setContentView(R.layout.activity_main);
 		ButterKnife.bind(this);
 
-		mAdapter = new UPnPDeviceAdapter(this);
+		WifiManager wifi = (WifiManager) getApplicationContext().getSystemService(Context.WIFI_SERVICE);
+		mMulticastLock = wifi.createMulticastLock(TAG);
+		mMulticastLock.setReferenceCounted(false);
+
+		UPnPBrowserApplication app = UPnPBrowserApplication.from(this);
+		mRegistry = app.getRegistry();
+		mFetcher = app.getDescriptionFetcher();
+		mCatalogFetcher = app.getCatalogFetcher();
+		mAdapter = new UPnPDeviceAdapter(this, app.getIconCache());
 		vRecycler.setAdapter(mAdapter);
 		vRecycler.setLayoutManager(new LinearLayoutManager(this));
 		vRecycler.setVisibility(View.INVISIBLE);
@@ -63,27 +87,67 @@ public class MainActivity extends ActionBarActivity {
 	protected void onStart() {
 		super.onStart();
 
-		new UPnPDeviceFinder().observe()
-			.filter(new Func1<UPnPDevice, Boolean>() {
+		// Required to receive multicast NOTIFY packets over wifi
+		mMulticastLock.acquire();
+
+		UPnPDeviceFinder finder = new UPnPDeviceFinder();
+
+		Observable<UPnPNotification> notifications = finder.listen()
+			.subscribeOn(Schedulers.newThread())
+			.onErrorResumeNext(new Func1<Throwable, Observable<UPnPNotification>>() {
 				@Override
-				public Boolean call(UPnPDevice device) {
-					try {
-						device.downloadSpecs();
-					}
-					catch (Exception e) {
-						// Ignore errors
-						Log.w(TAG, "Error: " + e);
-					}
-					return true;
+				public Observable<UPnPNotification> call(Throwable throwable) {
+					// Searching still works without the passive listener
+					Log.w(TAG, "Unable to listen for notifications: " + throwable);
+					return Observable.empty();
+				}
+			})
+			.share();
+
+		// New devices announced while we're running
+		Observable<UPnPDevice> announced = notifications
+			.filter(new Func1<UPnPNotification, Boolean>() {
+				@Override
+				public Boolean call(UPnPNotification notification) {
+					return notification.getDevice() != null;
+				}
+			})
+			.map(new Func1<UPnPNotification, UPnPDevice>() {
+				@Override
+				public UPnPDevice call(UPnPNotification notification) {
+					return notification.getDevice();
+				}
+			});
+
+		mSubscriptions = new CompositeSubscription();
+
+		// Device list changes, including expiry. A burst of replies is collected
+		// for a few frames and applied to the list as one batch.
+		mSubscriptions.add(mRegistry.observe()
+			.buffer(UPDATE_WINDOW_MILLIS, TimeUnit.MILLISECONDS)
+			.filter(new Func1<List<UPnPDeviceRegistry.Event>, Boolean>() {
+				@Override
+				public Boolean call(List<UPnPDeviceRegistry.Event> events) {
+					return !events.isEmpty();
+				}
+			})
+			.map(new Func1<List<UPnPDeviceRegistry.Event>, List<UPnPDeviceAdapter.Change>>() {
+				@Override
+				public List<UPnPDeviceAdapter.Change> call(List<UPnPDeviceRegistry.Event> events) {
+					// Build the rows here, on the computation thread
+					return mAdapter.prepare(events);
 				}
 			})
-			.subscribeOn(Schedulers.io())
+			.onBackpressureBuffer()
 			.observeOn(AndroidSchedulers.mainThread())
-			.subscribe(new Action1<UPnPDevice>() {
+			.subscribe(new Action1<List<UPnPDeviceAdapter.Change>>() {
 				@Override
-				public void call(UPnPDevice device) {
+				public void call(List<UPnPDeviceAdapter.Change> changes) {
+					boolean wasEmpty = mAdapter.getItemCount() == 0;
+					mAdapter.apply(changes);
+
 					// This is the first device found.
-					if (mAdapter.getItemCount() == 0) {
+					if (wasEmpty && mAdapter.getItemCount() > 0) {
 						vSpinner.animate()
 							.alpha(0f)
 							.setDuration(1000)
@@ -99,10 +163,48 @@ public class MainActivity extends ActionBarActivity {
 							.setInterpolator(new DecelerateInterpolator())
 							.start();
 					}
+				}
+			}));
 
-					mAdapter.add(device);
+		// byebye and repeated alives
+		mSubscriptions.add(notifications
+			.subscribe(new Action1<UPnPNotification>() {
+				@Override
+				public void call(UPnPNotification notification) {
+					mRegistry.handle(notification);
 				}
-			});
+			}));
+
+		mSubscriptions.add(Observable.merge(finder.observe().subscribeOn(Schedulers.io()), announced)
+			.compose(mFetcher)
+			.subscribe(new Action1<UPnPDevice>() {
+				@Override
+				public void call(UPnPDevice device) {
+					mRegistry.register(device);
+					for (UPnPDevice embedded : device.getEmbeddedDevices()) {
+						mRegistry.register(embedded);
+					}
+					if (device.getDescription() != null) {
+						// Off the search path, so it never delays the list
+						mCatalogFetcher.prefetch(device);
+					}
+				}
+			}, new Action1<Throwable>() {
+				@Override
+				public void call(Throwable throwable) {
+					Log.w(TAG, "Search failed: " + throwable);
+				}
+			}));
+	}
+
+	@Override
+	protected void onStop() {
+		super.onStop();
+		if (mSubscriptions != null) {
+			mSubscriptions.unsubscribe();
+			mSubscriptions = null;
+		}
+		mMulticastLock.release();
 	}
 
 	@Override
@@ -117,6 +219,9 @@ public class MainActivity extends ActionBarActivity {
 		case R.id.action_info:
 			startActivity(AboutActivity.createIntent(this));
 			return true;
+		case R.id.action_metrics:
+			startActivity(MetricsActivity.createIntent(this));
+			return true;
 		}
 
 		return super.onOptionsItemSelected(item);
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2015 Doug Melton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dgmltn.upnpbrowser;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Handler;
+import android.support.v7.widget.Toolbar;
+import android.view.MenuItem;
+import android.view.View;
+import android.widget.TextView;
+
+/**
+ * Debug screen showing the discovery metrics, refreshed every second.
+ */
+public class MetricsActivity extends Activity {
+
+	private static final long REFRESH_MILLIS = 1000;
+
+	private UPnPMetricsRecorder mMetrics;
+	private TextView vMetrics;
+	private final Handler mHandler = new Handler();
+
+	private final Runnable mRefresh = new Runnable() {
+		@Override
+		public void run() {
+			vMetrics.setText(mMetrics.toString());
+			mHandler.postDelayed(this, REFRESH_MILLIS);
+		}
+	};
+
+	public static Intent createIntent(Context context) {
+		return new Intent(context, MetricsActivity.class);
+	}
+
+	@Override
+	protected void onCreate(Bundle savedInstanceState) {
+		super.onCreate(savedInstanceState);
+		setContentView(R.layout.activity_metrics);
+
+		mMetrics = UPnPBrowserApplication.from(this).getMetrics();
+		vMetrics = (TextView) findViewById(R.id.metrics);
+
+		Toolbar bar = (Toolbar) findViewById(R.id.toolbar);
+		bar.setTitle(R.string.action_metrics);
+		bar.setNavigationOnClickListener(new View.OnClickListener() {
+			@Override
+			public void onClick(View v) {
+				finish();
+			}
+		});
+		bar.inflateMenu(R.menu.menu_metrics);
+		bar.setOnMenuItemClickListener(new Toolbar.OnMenuItemClickListener() {
+			@Override
+			public boolean onMenuItemClick(MenuItem item) {
+				if (item.getItemId() == R.id.action_reset) {
+					mMetrics.reset();
+					vMetrics.setText(mMetrics.toString());
+					return true;
+				}
+				return false;
+			}
+		});
+	}
+
+	@Override
+	protected void onResume() {
+		super.onResume();
+		mRefresh.run();
+	}
+
+	@Override
+	protected void onPause() {
+		super.onPause();
+		mHandler.removeCallbacks(mRefresh);
+	}
+}
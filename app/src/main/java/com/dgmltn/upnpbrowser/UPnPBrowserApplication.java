@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2015 Doug Melton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dgmltn.upnpbrowser;
+
+import java.io.File;
+
+import android.app.Application;
+import android.content.Context;
+import android.util.Log;
+
+import com.squareup.okhttp.OkHttpClient;
+
+/**
+ * Holds the objects that live as long as the process, rather than an Activity.
+ */
+public class UPnPBrowserApplication extends Application {
+
+	private OkHttpClient mHttpClient;
+	private UPnPDescriptionCache mDescriptionCache;
+	private UPnPDescriptionFetcher mDescriptionFetcher;
+	private UPnPDeviceRegistry mRegistry;
+	private UPnPActionCatalogFetcher mCatalogFetcher;
+	private GENASubscriptionManager mSubscriptionManager;
+	private UPnPIconCache mIconCache;
+	private final UPnPMetricsRecorder mMetrics = new UPnPMetricsRecorder();
+
+	public static UPnPBrowserApplication from(Context context) {
+		return (UPnPBrowserApplication) context.getApplicationContext();
+	}
+
+	@Override
+	public void onCreate() {
+		super.onCreate();
+
+		// Keep per-packet and per-device logging out of release builds
+		UPnPLog.setLevel(BuildConfig.DEBUG ? UPnPLog.DEBUG : UPnPLog.WARN);
+		UPnPLog.setSink(new UPnPLog.Sink() {
+			@Override
+			public void log(int level, String tag, String message, Throwable throwable) {
+				if (throwable != null) {
+					message = message + '\n' + Log.getStackTraceString(throwable);
+				}
+				Log.println(level, tag, message);
+			}
+		});
+		UPnPMetrics.setSink(mMetrics);
+		UPnPIconSelector.setTargetSize(getResources().getDimensionPixelSize(R.dimen.icon_size));
+	}
+
+	/**
+	 * Everything discovery has reported since the process started, or since
+	 * the last reset.
+	 */
+	public UPnPMetricsRecorder getMetrics() {
+		return mMetrics;
+	}
+
+	public synchronized OkHttpClient getHttpClient() {
+		if (mHttpClient == null) {
+			mHttpClient = UPnPHttpClient.create(new File(getCacheDir(), "http"));
+		}
+		return mHttpClient;
+	}
+
+	public synchronized UPnPDescriptionCache getDescriptionCache() {
+		if (mDescriptionCache == null) {
+			mDescriptionCache = new UPnPDescriptionCache(new File(getCacheDir(), "descriptions"));
+		}
+		return mDescriptionCache;
+	}
+
+	/**
+	 * Shared by every Activity instance, so that a rotation keeps its fetch
+	 * threads and the descriptions already shared per LOCATION.
+	 */
+	public synchronized UPnPDescriptionFetcher getDescriptionFetcher() {
+		if (mDescriptionFetcher == null) {
+			mDescriptionFetcher = new UPnPDescriptionFetcher(getHttpClient(), getDescriptionCache(), getIconCache());
+		}
+		return mDescriptionFetcher;
+	}
+
+	public synchronized UPnPDeviceRegistry getRegistry() {
+		if (mRegistry == null) {
+			mRegistry = new UPnPDeviceRegistry();
+		}
+		return mRegistry;
+	}
+
+	public synchronized UPnPActionCatalogFetcher getCatalogFetcher() {
+		if (mCatalogFetcher == null) {
+			mCatalogFetcher = new UPnPActionCatalogFetcher(getHttpClient());
+		}
+		return mCatalogFetcher;
+	}
+
+	public synchronized GENASubscriptionManager getSubscriptionManager() {
+		if (mSubscriptionManager == null) {
+			mSubscriptionManager = new GENASubscriptionManager(getHttpClient());
+		}
+		return mSubscriptionManager;
+	}
+
+	public synchronized UPnPIconCache getIconCache() {
+		if (mIconCache == null) {
+			mIconCache = new UPnPIconCache(getHttpClient(), new File(getCacheDir(), "icons"),
+				getResources().getDimensionPixelSize(R.dimen.icon_size));
+		}
+		return mIconCache;
+	}
+}
@@ -17,26 +17,28 @@
 package com.dgmltn.upnpbrowser;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
 
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.support.annotation.Nullable;
+import android.support.v7.util.SortedList;
 import android.support.v7.widget.RecyclerView;
-import android.text.TextUtils;
+import android.support.v7.widget.util.SortedListAdapterCallback;
 import android.text.method.LinkMovementMethod;
-import android.text.style.URLSpan;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ImageView;
 import android.widget.TextView;
 
-import com.squareup.picasso.Picasso;
-
 import butterknife.Bind;
 import butterknife.ButterKnife;
 import butterknife.OnClick;
+import rx.Subscription;
+import rx.android.schedulers.AndroidSchedulers;
+import rx.functions.Action1;
 
 public class UPnPDeviceAdapter extends RecyclerView.Adapter<UPnPDeviceAdapter.ViewHolder> {
 
@@ -44,19 +46,53 @@ public class UPnPDeviceAdapter extends RecyclerView.Adapter<UPnPDeviceAdapter.Vi
 		public void onClick(UPnPDevice item, int position);
 	}
 
-	private Comparator<UPnPDevice> mComparator = new UPnPDeviceComparator();
+	/**
+	 * A registry event with its row prepared, see {@link #prepare}.
+	 */
+	public static class Change {
+		final UPnPDeviceRegistry.Event.Type mType;
+		final UPnPDeviceRow mRow;
+
+		Change(UPnPDeviceRegistry.Event.Type type, UPnPDeviceRow row) {
+			mType = type;
+			mRow = row;
+		}
+	}
+
+	private UPnPDeviceComparator mComparator = new UPnPDeviceComparator();
 
+	private Context mContext;
 	private LayoutInflater inflater;
-	private Picasso picasso;
-	private ArrayList<UPnPDevice> mItems;
+	private UPnPIconCache mIconCache;
+	private SortedList<UPnPDeviceRow> mItems;
+	// The row in mItems for each registry key
+	private HashMap<String, UPnPDeviceRow> mRows = new HashMap<>();
 	private ItemClickListener mListener;
+	private int mEmbeddedIndent;
 
-	public UPnPDeviceAdapter(Context context) {
+	public UPnPDeviceAdapter(Context context, UPnPIconCache iconCache) {
 		super();
+		mContext = context.getApplicationContext();
 		inflater = LayoutInflater.from(context);
-		picasso = Picasso.with(context);
-		picasso.setIndicatorsEnabled(false);
-		mItems = new ArrayList<>();
+		mIconCache = iconCache;
+		mItems = new SortedList<>(UPnPDeviceRow.class, new SortedListAdapterCallback<UPnPDeviceRow>(this) {
+			@Override
+			public int compare(UPnPDeviceRow lhs, UPnPDeviceRow rhs) {
+				// Sort on the rows' snapshots, not the live devices
+				return mComparator.compare(lhs.getDevice(), lhs.isEmbedded(), rhs.getDevice(), rhs.isEmbedded());
+			}
+
+			@Override
+			public boolean areItemsTheSame(UPnPDeviceRow lhs, UPnPDeviceRow rhs) {
+				return lhs.getKey().equals(rhs.getKey());
+			}
+
+			@Override
+			public boolean areContentsTheSame(UPnPDeviceRow lhs, UPnPDeviceRow rhs) {
+				return lhs.looksLike(rhs);
+			}
+		});
+		mEmbeddedIndent = context.getResources().getDimensionPixelSize(R.dimen.embedded_device_indent);
 		setHasStableIds(false);
 	}
 
@@ -70,25 +106,66 @@ public class UPnPDeviceAdapter extends RecyclerView.Adapter<UPnPDeviceAdapter.Vi
 	}
 
 	public UPnPDevice getItem(int position) {
-		return mItems.get(position);
+		return mItems.get(position).getDevice();
 	}
 
 	public void clear() {
-		int count = mItems.size();
 		mItems.clear();
-		notifyItemRangeRemoved(0, count);
+		mRows.clear();
 	}
 
-	public void add(UPnPDevice item) {
-		int index = Collections.binarySearch(mItems, item, mComparator);
-		if (index < 0) {
-			int position = -index - 1;
-			mItems.add(position, item);
-			notifyItemInserted(position);
+	/**
+	 * Builds the rows for a batch of registry events. Does all the string and
+	 * span work, so call it off the main thread.
+	 */
+	public List<Change> prepare(List<UPnPDeviceRegistry.Event> events) {
+		List<Change> changes = new ArrayList<>(events.size());
+		for (UPnPDeviceRegistry.Event event : events) {
+			changes.add(new Change(event.getType(), new UPnPDeviceRow(mContext, event.getDevice())));
 		}
-		else {
-			mItems.set(index, item);
-			notifyItemChanged(index);
+		return changes;
+	}
+
+	/**
+	 * Applies a batch of prepared changes with a single sorted merge,
+	 * dispatching the resulting inserts, moves and removals to the RecyclerView
+	 * together.
+	 */
+	public void apply(List<Change> changes) {
+		mItems.beginBatchedUpdates();
+		try {
+			for (Change change : changes) {
+				apply(change);
+			}
+		}
+		finally {
+			mItems.endBatchedUpdates();
+		}
+	}
+
+	private void apply(Change change) {
+		UPnPDeviceRow row = change.mRow;
+		UPnPDeviceRow previous;
+		switch (change.mType) {
+		case ADD:
+		case UPDATE:
+			previous = mRows.put(row.getKey(), row);
+			int index = previous == null ? SortedList.INVALID_POSITION : mItems.indexOf(previous);
+			if (index == SortedList.INVALID_POSITION) {
+				mItems.add(row);
+			}
+			else {
+				// A description may move a device (e.g. under its root); the
+				// old row still sorts where it was, so it can be found and moved
+				mItems.updateItemAt(index, row);
+			}
+			break;
+		case REMOVE:
+			previous = mRows.remove(row.getKey());
+			if (previous != null) {
+				mItems.remove(previous);
+			}
+			break;
 		}
 	}
 
@@ -99,57 +176,53 @@ public class UPnPDeviceAdapter extends RecyclerView.Adapter<UPnPDeviceAdapter.Vi
 
 	@Override
 	public void onBindViewHolder(ViewHolder holder, int position) {
-		UPnPDevice item = getItem(position);
+		UPnPDeviceRow row = mItems.get(position);
+
+		// Embedded devices are listed right after their root, indented
+		int marginLeft = holder.marginLeft + (row.isEmbedded() ? mEmbeddedIndent : 0);
+		ViewGroup.MarginLayoutParams params = (ViewGroup.MarginLayoutParams) holder.itemView.getLayoutParams();
+		if (params.leftMargin != marginLeft) {
+			params.leftMargin = marginLeft;
+			holder.itemView.setLayoutParams(params);
+		}
+
 		if (holder.friendlyName != null) {
-			String friendlyName = item.getScrubbedFriendlyName();
-			if (TextUtils.isEmpty(friendlyName)) {
-				friendlyName = "[unnamed]";
-			}
-			holder.friendlyName.setText(friendlyName);
+			holder.friendlyName.setText(row.getName());
 		}
 		if (holder.location != null) {
-			String loc = item.getLocation().toExternalForm()
-				// Uncomment to obscure actual ip addresses for screenshots
-				// .replaceAll("[0-9]+\\.[0-9]+\\.[0-9]+", "192.258.1")
-				;
-			linkify(holder.location, null, loc);
+			holder.location.setText(row.getLocation());
 		}
 		if (holder.icon != null) {
-			if (!TextUtils.isEmpty(item.getIconUrl())) {
-				int iconSize = (int) holder.icon.getContext().getResources().getDimension(R.dimen.icon_size);
-				picasso.load(item.getIconUrl())
-					.error(R.drawable.ic_server_network)
-					.resize(iconSize, iconSize)
-					.centerInside()
-					.into(holder.icon);
+			holder.cancelIconLoad();
+			Bitmap bitmap = mIconCache.get(row.getDevice());
+			if (bitmap != null) {
+				holder.icon.setImageBitmap(bitmap);
 			}
 			else {
 				holder.icon.setImageResource(R.drawable.ic_server_network);
+				if (row.getIconUrl() != null) {
+					final ImageView icon = holder.icon;
+					holder.iconLoad = mIconCache.load(row.getDevice())
+						.observeOn(AndroidSchedulers.mainThread())
+						.subscribe(new Action1<Bitmap>() {
+							@Override
+							public void call(Bitmap bitmap) {
+								icon.setImageBitmap(bitmap);
+							}
+						}, new Action1<Throwable>() {
+							@Override
+							public void call(Throwable throwable) {
+								// Keep the placeholder
+							}
+						});
+				}
 			}
 		}
 	}
 
-	private void linkify(TextView view, CharSequence str, String url) {
-		if (TextUtils.isEmpty(str) && TextUtils.isEmpty(url)) {
-			view.setVisibility(View.GONE);
-			return;
-		}
-
-		view.setVisibility(View.VISIBLE);
-		if (TextUtils.isEmpty(url)) {
-			view.setText(str);
-			return;
-		}
-
-		if (TextUtils.isEmpty(str)) {
-			str = url;
-		}
-
-		SpannableBuilder builder = new SpannableBuilder(view.getContext());
-		builder.append(str, new URLSpan(url));
-
-		view.setText(builder.build());
-		view.setMovementMethod(LinkMovementMethod.getInstance());
+	@Override
+	public void onViewRecycled(ViewHolder holder) {
+		holder.cancelIconLoad();
 	}
 
 	class ViewHolder extends RecyclerView.ViewHolder {
@@ -165,16 +238,31 @@ public class UPnPDeviceAdapter extends RecyclerView.Adapter<UPnPDeviceAdapter.Vi
 		@Nullable
 		TextView location;
 
+		final int marginLeft;
+
+		Subscription iconLoad;
+
 		public ViewHolder(View view) {
 			super(view);
 			ButterKnife.bind(this, view);
+			marginLeft = ((ViewGroup.MarginLayoutParams) view.getLayoutParams()).leftMargin;
+			if (location != null) {
+				location.setMovementMethod(LinkMovementMethod.getInstance());
+			}
+		}
+
+		void cancelIconLoad() {
+			if (iconLoad != null) {
+				iconLoad.unsubscribe();
+				iconLoad = null;
+			}
 		}
 
 		@OnClick(R.id.root)
 		public void click(View view) {
 			int position = getAdapterPosition();
 			if (mListener != null) {
-				mListener.onClick(mItems.get(position), position);
+				mListener.onClick(getItem(position), position);
 				notifyItemChanged(position);
 			}
 		}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2015 Doug Melton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dgmltn.upnpbrowser;
+
+import android.content.Context;
+import android.text.TextUtils;
+import android.text.style.URLSpan;
+
+/**
+ * Everything a device row displays, worked out once when the device is
+ * registered or updated (off the main thread) so that binding a row only
+ * assigns fields.
+ */
+public class UPnPDeviceRow {
+
+	private final UPnPDevice mDevice;
+	private final String mKey;
+	private final boolean mEmbedded;
+	private final String mName;
+	private final CharSequence mLocation;
+	private final String mIconUrl;
+
+	public UPnPDeviceRow(Context context, UPnPDevice device) {
+		mDevice = device;
+		mKey = UPnPDeviceRegistry.getKey(device);
+		mEmbedded = device.isEmbedded();
+
+		String name = device.getScrubbedFriendlyName();
+		mName = TextUtils.isEmpty(name) ? "[unnamed]" : name;
+
+		String url = device.getLocation().toExternalForm()
+			// Uncomment to obscure actual ip addresses for screenshots
+			// .replaceAll("[0-9]+\\.[0-9]+\\.[0-9]+", "192.258.1")
+			;
+		SpannableBuilder builder = new SpannableBuilder(context);
+		builder.append(url, new URLSpan(url));
+		mLocation = builder.build();
+
+		mIconUrl = device.getIconUrl();
+	}
+
+	public UPnPDevice getDevice() {
+		return mDevice;
+	}
+
+	/**
+	 * The device's registry key, see {@link UPnPDeviceRegistry#getKey}.
+	 */
+	public String getKey() {
+		return mKey;
+	}
+
+	/**
+	 * The scrubbed friendly name, or a placeholder.
+	 */
+	public String getName() {
+		return mName;
+	}
+
+	/**
+	 * The LOCATION, as a link.
+	 */
+	public CharSequence getLocation() {
+		return mLocation;
+	}
+
+	public String getIconUrl() {
+		return mIconUrl;
+	}
+
+	/**
+	 * Whether the device was embedded when this row was built. The device
+	 * itself changes when its description arrives; rows don't, so that a
+	 * SortedList of them stays sorted.
+	 */
+	public boolean isEmbedded() {
+		return mEmbedded;
+	}
+
+	/**
+	 * True if a row bound to {@code other} would look the same as one bound to
+	 * this.
+	 */
+	public boolean looksLike(UPnPDeviceRow other) {
+		return mName.equals(other.mName)
+			&& TextUtils.equals(mIconUrl, other.mIconUrl)
+			&& mEmbedded == other.mEmbedded;
+	}
+}
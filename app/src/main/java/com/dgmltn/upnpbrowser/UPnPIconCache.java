@@ -0,0 +1,332 @@
+/*
+ * Copyright (C) 2015 Doug Melton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dgmltn.upnpbrowser;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.text.TextUtils;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+
+import rx.Observable;
+import rx.Scheduler;
+import rx.Subscriber;
+import rx.functions.Action0;
+import rx.functions.Action1;
+import rx.schedulers.Schedulers;
+
+/**
+ * Device icons, decoded once at the size they're drawn at. Bitmaps are kept in
+ * a memory LRU bounded by bytes and keyed by UDN (and icon URL, in case a new
+ * description points somewhere else), and written to disk as PNGs so that a
+ * rescan or a restart shows them without a download or a large decode.
+ */
+public class UPnPIconCache implements UPnPDescriptionFetcher.Listener {
+
+	private static String TAG = UPnPIconCache.class.getName();
+
+	private static final int THREADS = 2;
+
+	private final OkHttpClient mClient;
+	private final File mDirectory;
+	private final int mIconSize;
+	private final LruCache<String, Bitmap> mMemory;
+	private final Scheduler mScheduler;
+	private final ConcurrentHashMap<String, Observable<Bitmap>> mLoading = new ConcurrentHashMap<>();
+
+	/**
+	 * @param iconSize the size icons are drawn at, in pixels
+	 */
+	public UPnPIconCache(OkHttpClient client, File directory, int iconSize) {
+		mClient = client;
+		mDirectory = directory;
+		mIconSize = iconSize;
+
+		// An eighth of what the app may use; a 48dp icon is ~36K at xxhdpi
+		int maxBytes = (int) Math.min(Runtime.getRuntime().maxMemory() / 8, Integer.MAX_VALUE);
+		mMemory = new LruCache<String, Bitmap>(maxBytes) {
+			@Override
+			protected int sizeOf(String key, Bitmap bitmap) {
+				return bitmap.getByteCount();
+			}
+		};
+
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(
+			THREADS, THREADS, 30, TimeUnit.SECONDS,
+			new LinkedBlockingQueue<Runnable>(), new IconThreadFactory());
+		executor.allowCoreThreadTimeOut(true);
+		mScheduler = Schedulers.from(executor);
+	}
+
+	/**
+	 * The icon for {@code device} if it's in memory, otherwise null. Never
+	 * blocks.
+	 */
+	public Bitmap get(UPnPDevice device) {
+		String key = getKey(device);
+		if (key == null) {
+			return null;
+		}
+		Bitmap bitmap = mMemory.get(key);
+		UPnPMetrics.count(bitmap != null ? UPnPMetrics.Counter.ICON_CACHE_HITS : UPnPMetrics.Counter.ICON_CACHE_MISSES);
+		return bitmap;
+	}
+
+	/**
+	 * Emits the icon for {@code device} from memory, disk or the network, or
+	 * completes without emitting if it has none or it can't be loaded.
+	 * Concurrent loads of the same icon share one download.
+	 */
+	public Observable<Bitmap> load(final UPnPDevice device) {
+		final String key = getKey(device);
+		if (key == null) {
+			return Observable.empty();
+		}
+		Bitmap bitmap = mMemory.get(key);
+		if (bitmap != null) {
+			return Observable.just(bitmap);
+		}
+
+		Observable<Bitmap> loading = mLoading.get(key);
+		if (loading != null) {
+			return loading;
+		}
+
+		loading = Observable.create(new Observable.OnSubscribe<Bitmap>() {
+			@Override
+			public void call(Subscriber<? super Bitmap> subscriber) {
+				Bitmap bitmap = read(key);
+				if (bitmap == null) {
+					bitmap = download(device.getIconUrl());
+					if (bitmap != null) {
+						write(key, bitmap);
+					}
+				}
+				if (bitmap != null) {
+					mMemory.put(key, bitmap);
+					subscriber.onNext(bitmap);
+				}
+				subscriber.onCompleted();
+			}
+		})
+			.subscribeOn(mScheduler)
+			.doOnTerminate(new Action0() {
+				@Override
+				public void call() {
+					mLoading.remove(key);
+				}
+			})
+			.cache();
+
+		Observable<Bitmap> existing = mLoading.putIfAbsent(key, loading);
+		return existing != null ? existing : loading;
+	}
+
+	/**
+	 * Starts loading the icon for {@code device} in the background.
+	 */
+	public void prefetch(UPnPDevice device) {
+		load(device).subscribe(new Action1<Bitmap>() {
+			@Override
+			public void call(Bitmap bitmap) {
+			}
+		}, new Action1<Throwable>() {
+			@Override
+			public void call(Throwable throwable) {
+				Log.w(TAG, "Prefetch failed: " + throwable);
+			}
+		});
+	}
+
+	@Override
+	public void onDescribed(UPnPDevice device) {
+		prefetch(device);
+	}
+
+	private static String getKey(UPnPDevice device) {
+		String url = device.getIconUrl();
+		if (TextUtils.isEmpty(url)) {
+			return null;
+		}
+		String udn = device.getUDN();
+		return udn == null ? url : udn + " " + url;
+	}
+
+	////////////////////////////////////////////////////////////////////////////////
+	// Decoding
+	////////////////////////////////////////////////////////////////////////////////
+
+	private Bitmap download(String url) {
+		Request request = new Request.Builder()
+			.url(url)
+			.build();
+
+		try {
+			Response response = mClient.newCall(request).execute();
+			if (!response.isSuccessful()) {
+				response.body().close();
+				Log.w(TAG, "Unable to fetch " + url + ": " + response);
+				return null;
+			}
+			return decode(response.body().bytes());
+		}
+		catch (IOException e) {
+			Log.w(TAG, "Unable to fetch " + url + ": " + e);
+			return null;
+		}
+	}
+
+	/**
+	 * Decodes with the largest power of two subsampling that keeps the image at
+	 * least {@code mIconSize}, then scales the rest of the way down so the
+	 * bitmap fits inside {@code mIconSize} square.
+	 */
+	private Bitmap decode(byte[] bytes) {
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+		BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+		if (options.outWidth <= 0 || options.outHeight <= 0) {
+			return null;
+		}
+
+		int sampleSize = 1;
+		while (Math.max(options.outWidth, options.outHeight) / (sampleSize * 2) >= mIconSize) {
+			sampleSize *= 2;
+		}
+		options.inJustDecodeBounds = false;
+		options.inSampleSize = sampleSize;
+		Bitmap bitmap = BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+		if (bitmap == null) {
+			return null;
+		}
+
+		int longest = Math.max(bitmap.getWidth(), bitmap.getHeight());
+		if (longest <= mIconSize) {
+			return bitmap;
+		}
+		int width = Math.max(1, bitmap.getWidth() * mIconSize / longest);
+		int height = Math.max(1, bitmap.getHeight() * mIconSize / longest);
+		Bitmap scaled = Bitmap.createScaledBitmap(bitmap, width, height, true);
+		if (scaled != bitmap) {
+			bitmap.recycle();
+		}
+		return scaled;
+	}
+
+	////////////////////////////////////////////////////////////////////////////////
+	// Storage
+	////////////////////////////////////////////////////////////////////////////////
+
+	private File getFile(String key) {
+		// FNV-1a: stable across runs and safe as a file name
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < key.length(); i++) {
+			hash ^= key.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		return new File(mDirectory, Long.toHexString(hash) + ".png");
+	}
+
+	private Bitmap read(String key) {
+		File file = getFile(key);
+		if (!file.exists()) {
+			return null;
+		}
+		Bitmap bitmap = BitmapFactory.decodeFile(file.getPath());
+		if (bitmap == null) {
+			Log.w(TAG, "Discarding unreadable icon " + file);
+			file.delete();
+		}
+		return bitmap;
+	}
+
+	private void write(String key, Bitmap bitmap) {
+		if (!mDirectory.exists() && !mDirectory.mkdirs()) {
+			return;
+		}
+
+		// Write to a temporary file and rename, so readers never see a partial icon
+		File file = getFile(key);
+		File tmp = new File(mDirectory, file.getName() + ".tmp" + Thread.currentThread().getId());
+		OutputStream out = null;
+		try {
+			out = new BufferedOutputStream(new FileOutputStream(tmp));
+			bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+			out.close();
+			out = null;
+			if (!tmp.renameTo(file)) {
+				tmp.delete();
+			}
+		}
+		catch (IOException e) {
+			Log.w(TAG, "Unable to write " + file + ": " + e);
+			tmp.delete();
+		}
+		finally {
+			closeQuietly(out);
+		}
+	}
+
+	public void clear() {
+		mMemory.evictAll();
+		File[] files = mDirectory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+	}
+
+	private static void closeQuietly(Closeable closeable) {
+		if (closeable != null) {
+			try {
+				closeable.close();
+			}
+			catch (IOException e) {
+				// Ignore
+			}
+		}
+	}
+
+	private static class IconThreadFactory implements ThreadFactory {
+		private final AtomicInteger mCount = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "upnp-icon-" + mCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
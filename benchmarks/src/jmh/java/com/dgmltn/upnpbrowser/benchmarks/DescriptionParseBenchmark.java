@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2015 Doug Melton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dgmltn.upnpbrowser.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.dgmltn.upnpbrowser.UPnPDescription;
+import com.dgmltn.upnpbrowser.UPnPDescriptionParser;
+import com.dgmltn.upnpbrowser.UPnPDevice;
+
+/**
+ * The CPU side of downloadSpecs: parsing a description document and applying
+ * it to a device. Documents range from a 1K single device (Roku) to an 11K
+ * ZonePlayer with embedded devices, 16 services and 8 icons (Sonos).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DescriptionParseBenchmark {
+
+	@Param({ "roku", "router-igd", "sonos" })
+	public String document;
+
+	private byte[] mBytes;
+	private UPnPDescription mDescription;
+	private UPnPDevice mDevice;
+
+	@Setup
+	public void setUp() throws Exception {
+		mBytes = Fixtures.description(document);
+		mDescription = UPnPDescriptionParser.parse(new ByteArrayInputStream(mBytes));
+		mDevice = UPnPDevice.getInstance(new String(Fixtures.ssdp("sonos")));
+	}
+
+	@Benchmark
+	public UPnPDescription parse() throws Exception {
+		return UPnPDescriptionParser.parse(new ByteArrayInputStream(mBytes));
+	}
+
+	/**
+	 * Picking the node, icon and name out of an already parsed description.
+	 */
+	@Benchmark
+	public String setDescription() {
+		mDevice.setDescription(mDescription);
+		return mDevice.getIconUrl();
+	}
+}
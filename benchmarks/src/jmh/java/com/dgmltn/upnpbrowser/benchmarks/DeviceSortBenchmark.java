@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2015 Doug Melton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dgmltn.upnpbrowser.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.dgmltn.upnpbrowser.UPnPDevice;
+import com.dgmltn.upnpbrowser.UPnPDeviceComparator;
+
+/**
+ * Ordering a device list the way the adapter does: one device at a time by
+ * binary search and insert, or all at once.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DeviceSortBenchmark {
+
+	@Param({ "10", "100", "1000" })
+	public int devices;
+
+	private final UPnPDeviceComparator mComparator = new UPnPDeviceComparator();
+	private List<UPnPDevice> mDevices;
+
+	@Setup
+	public void setUp() {
+		// Same network every run
+		Random random = new Random(1900);
+		mDevices = new ArrayList<>(devices);
+		for (int i = 0; i < devices; i++) {
+			String host = random.nextInt(4) == 0
+				? "[fe80::" + Integer.toHexString(random.nextInt(0x10000)) + ":" + Integer.toHexString(random.nextInt(0x10000)) + "]"
+				: "192.168." + random.nextInt(4) + "." + (1 + random.nextInt(254));
+			String reply = "HTTP/1.1 200 OK\r\n"
+				+ "CACHE-CONTROL: max-age=1800\r\n"
+				+ "LOCATION: http://" + host + ":" + (1400 + random.nextInt(8)) + "/xml/device_description.xml\r\n"
+				+ "ST: upnp:rootdevice\r\n"
+				+ "USN: uuid:device-" + i + "::upnp:rootdevice\r\n"
+				+ "\r\n";
+			mDevices.add(UPnPDevice.getInstance(reply));
+		}
+	}
+
+	/**
+	 * Each device inserted in arrival order, as UPnPDeviceAdapter.add did.
+	 */
+	@Benchmark
+	public List<UPnPDevice> sortedInsert() {
+		List<UPnPDevice> items = new ArrayList<>();
+		for (UPnPDevice device : mDevices) {
+			int index = Collections.binarySearch(items, device, mComparator);
+			if (index < 0) {
+				items.add(-index - 1, device);
+			}
+			else {
+				items.set(index, device);
+			}
+		}
+		return items;
+	}
+
+	/**
+	 * The whole batch sorted at once.
+	 */
+	@Benchmark
+	public List<UPnPDevice> sortAll() {
+		List<UPnPDevice> items = new ArrayList<>(mDevices);
+		Collections.sort(items, mComparator);
+		return items;
+	}
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2015 Doug Melton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dgmltn.upnpbrowser.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Loads the captured replies and description documents under
+ * src/jmh/resources.
+ */
+final class Fixtures {
+
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+	private Fixtures() {
+	}
+
+	/**
+	 * An M-SEARCH reply from ssdp/{@code name}.txt, with the CRLF line endings
+	 * it had on the wire.
+	 */
+	static byte[] ssdp(String name) {
+		String text = new String(read("/ssdp/" + name + ".txt"), ISO_8859_1);
+		return text.replace("\r\n", "\n").replace("\n", "\r\n").getBytes(ISO_8859_1);
+	}
+
+	static byte[] description(String name) {
+		return read("/descriptions/" + name + ".xml");
+	}
+
+	private static byte[] read(String path) {
+		InputStream in = Fixtures.class.getResourceAsStream(path);
+		if (in == null) {
+			throw new IllegalArgumentException("No fixture " + path);
+		}
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int count;
+			while ((count = in.read(buffer)) != -1) {
+				out.write(buffer, 0, count);
+			}
+			return out.toByteArray();
+		}
+		catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		finally {
+			try {
+				in.close();
+			}
+			catch (IOException e) {
+				// Ignore
+			}
+		}
+	}
+}
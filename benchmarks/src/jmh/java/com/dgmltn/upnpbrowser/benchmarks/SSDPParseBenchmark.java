@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2015 Doug Melton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dgmltn.upnpbrowser.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.dgmltn.upnpbrowser.SSDPMessage;
+import com.dgmltn.upnpbrowser.UPnPDevice;
+
+/**
+ * Turning one M-SEARCH reply into a UPnPDevice, as the finder does for every
+ * datagram it receives.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SSDPParseBenchmark {
+
+	@Param({ "sonos", "roku", "router", "nas" })
+	public String reply;
+
+	private ByteBuffer mBuffer;
+	private String mRaw;
+	private final SSDPMessage mMessage = new SSDPMessage();
+
+	@Setup
+	public void setUp() {
+		byte[] bytes = Fixtures.ssdp(reply);
+		mBuffer = ByteBuffer.allocateDirect(bytes.length);
+		mBuffer.put(bytes);
+		mBuffer.flip();
+		mRaw = new String(bytes);
+	}
+
+	/**
+	 * Indexing the headers only, as the finder does before its duplicate check.
+	 */
+	@Benchmark
+	public long parseMessage() {
+		mMessage.parse(mBuffer);
+		return mMessage.hash(SSDPMessage.Header.USN) ^ mMessage.hash(SSDPMessage.Header.LOCATION);
+	}
+
+	/**
+	 * What the finder does for a new device.
+	 */
+	@Benchmark
+	public UPnPDevice getInstanceFromBuffer() {
+		mMessage.parse(mBuffer);
+		return UPnPDevice.getInstance(mMessage);
+	}
+
+	/**
+	 * The String entry point.
+	 */
+	@Benchmark
+	public UPnPDevice getInstanceFromString() {
+		return UPnPDevice.getInstance(mRaw);
+	}
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2015 Doug Melton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dgmltn.upnpbrowser;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * One GENA event message: the evented state variables that changed, with their
+ * new values, for one service of one device.
+ *
+ * @see GENASubscriptionManager
+ */
+public class GENAEvent {
+
+	private final String mUDN;
+	private final String mServiceId;
+	private final String mSID;
+	private final long mSequence;
+	private final Map<String, String> mProperties;
+
+	GENAEvent(String udn, String serviceId, String sid, long sequence, Map<String, String> properties) {
+		mUDN = udn;
+		mServiceId = serviceId;
+		mSID = sid;
+		mSequence = sequence;
+		mProperties = Collections.unmodifiableMap(properties);
+	}
+
+	public String getUDN() {
+		return mUDN;
+	}
+
+	public String getServiceId() {
+		return mServiceId;
+	}
+
+	public String getSID() {
+		return mSID;
+	}
+
+	/**
+	 * SEQ: 0 for the initial event sent after subscribing, then incremented for
+	 * each event.
+	 */
+	public long getSequence() {
+		return mSequence;
+	}
+
+	public boolean isInitial() {
+		return mSequence == 0;
+	}
+
+	/**
+	 * State variable name => new value. Values are passed through as sent, so
+	 * e.g. an AVTransport LastChange is itself an XML document.
+	 */
+	public Map<String, String> getProperties() {
+		return mProperties;
+	}
+
+	public String getProperty(String name) {
+		return mProperties.get(name);
+	}
+
+	@Override
+	public String toString() {
+		return mUDN + " " + mServiceId + " #" + mSequence + " " + mProperties;
+	}
+}
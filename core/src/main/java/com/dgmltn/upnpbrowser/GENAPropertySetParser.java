@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2015 Doug Melton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dgmltn.upnpbrowser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * Streaming (SAX) parser for the body of a GENA NOTIFY:
+ * {@code <e:propertyset><e:property><Name>value</Name></e:property>...}
+ */
+public final class GENAPropertySetParser {
+
+	private static final SAXParserFactory FACTORY = UPnPXml.newParserFactory();
+
+	private static final ThreadLocal<SAXParser> PARSER = new ThreadLocal<SAXParser>() {
+		@Override
+		protected SAXParser initialValue() {
+			try {
+				synchronized (FACTORY) {
+					return FACTORY.newSAXParser();
+				}
+			}
+			catch (ParserConfigurationException | SAXException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	};
+
+	private GENAPropertySetParser() {
+	}
+
+	/**
+	 * @return state variable name => value, in document order
+	 */
+	public static Map<String, String> parse(InputStream in) throws IOException, SAXException {
+		Handler handler = new Handler();
+		SAXParser parser = PARSER.get();
+		try {
+			parser.parse(new InputSource(in), handler);
+		}
+		finally {
+			parser.reset();
+		}
+		return handler.mProperties;
+	}
+
+	private static class Handler extends UPnPXml.Handler {
+		private final Map<String, String> mProperties = new LinkedHashMap<>();
+		private final StringBuilder mText = new StringBuilder();
+		private boolean mInProperty;
+		private int mDepth;
+
+		@Override
+		public void startElement(String uri, String localName, String qName, Attributes attributes) {
+			String name = name(localName, qName);
+			if (name.equals("property")) {
+				mInProperty = true;
+				mDepth = 0;
+			}
+			else if (mInProperty) {
+				if (mDepth == 0) {
+					mText.setLength(0);
+				}
+				mDepth++;
+			}
+		}
+
+		@Override
+		public void characters(char[] ch, int start, int length) {
+			if (mInProperty && mDepth == 1) {
+				mText.append(ch, start, length);
+			}
+		}
+
+		@Override
+		public void endElement(String uri, String localName, String qName) {
+			String name = name(localName, qName);
+			if (name.equals("property")) {
+				mInProperty = false;
+			}
+			else if (mInProperty) {
+				mDepth--;
+				if (mDepth == 0) {
+					// Don't trim: whitespace may be part of a value
+					mProperties.put(name, mText.toString());
+				}
+			}
+		}
+
+		private static String name(String localName, String qName) {
+			if (localName != null && localName.length() > 0) {
+				return localName;
+			}
+			int colon = qName.indexOf(':');
+			return colon == -1 ? qName : qName.substring(colon + 1);
+		}
+	}
+}
@@ -0,0 +1,415 @@
+/*
+ * Copyright (C) 2015 Doug Melton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dgmltn.upnpbrowser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+
+/**
+ * A minimal HTTP server for GENA event callbacks. A single thread services
+ * every connection with a Selector; each NOTIFY request is read in full, handed
+ * to the {@link Listener}, answered and closed. Nothing but NOTIFY is accepted.
+ * Bodies may be sent with a Content-Length or chunked.
+ */
+public class GENAServer implements Closeable {
+
+	private static String TAG = GENAServer.class.getName();
+
+	public static final int MAX_REQUEST_SIZE = 64 * 1024;
+
+	private static final long IDLE_TIMEOUT_MILLIS = 30 * 1000;
+
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+	private static final byte[] OK = response("200 OK");
+	private static final byte[] BAD_REQUEST = response("400 Bad Request");
+	private static final byte[] PRECONDITION_FAILED = response("412 Precondition Failed");
+	private static final byte[] METHOD_NOT_ALLOWED = response("405 Method Not Allowed");
+	private static final byte[] NOT_IMPLEMENTED = response("501 Not Implemented");
+
+	public interface Listener {
+		/**
+		 * Called on the server thread for every event message.
+		 *
+		 * @param path the request path, which identifies the subscription
+		 * @param sid the SID header, or null
+		 * @param seq the SEQ header, or -1
+		 * @return false if the subscription is unknown
+		 */
+		public boolean onNotify(String path, String sid, long seq, byte[] body);
+	}
+
+	private static class Connection {
+		ByteBuffer mBuffer = ByteBuffer.allocate(1024);
+		ByteBuffer mResponse;
+		long mLastActive = System.currentTimeMillis();
+	}
+
+	private final Listener mListener;
+	private final Selector mSelector;
+	private final ServerSocketChannel mServer;
+	private final Thread mThread;
+
+	private volatile boolean mStopped;
+
+	/**
+	 * Binds to an ephemeral port on all addresses and starts serving.
+	 */
+	public GENAServer(Listener listener) throws IOException {
+		mListener = listener;
+		mSelector = Selector.open();
+		mServer = ServerSocketChannel.open();
+		try {
+			mServer.configureBlocking(false);
+			mServer.socket().bind(new InetSocketAddress(0));
+			mServer.register(mSelector, SelectionKey.OP_ACCEPT);
+		}
+		catch (IOException e) {
+			mServer.close();
+			mSelector.close();
+			throw e;
+		}
+
+		mThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					serve();
+				}
+				catch (IOException e) {
+					UPnPLog.e(TAG, "GENA server stopped: " + e);
+				}
+				finally {
+					close();
+				}
+			}
+		}, "upnp-gena-server");
+		mThread.setDaemon(true);
+		mThread.start();
+	}
+
+	public int getPort() {
+		return mServer.socket().getLocalPort();
+	}
+
+	private void serve() throws IOException {
+		while (!mStopped) {
+			mSelector.select(IDLE_TIMEOUT_MILLIS / 2);
+
+			Iterator<SelectionKey> keys = mSelector.selectedKeys().iterator();
+			while (keys.hasNext() && !mStopped) {
+				SelectionKey key = keys.next();
+				keys.remove();
+				if (!key.isValid()) {
+					continue;
+				}
+				try {
+					if (key.isAcceptable()) {
+						accept();
+					}
+					else if (key.isReadable()) {
+						read(key);
+					}
+					else if (key.isWritable()) {
+						write(key);
+					}
+				}
+				catch (IOException e) {
+					closeConnection(key);
+				}
+			}
+
+			closeIdleConnections();
+		}
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel;
+		while ((channel = mServer.accept()) != null) {
+			channel.configureBlocking(false);
+			channel.register(mSelector, SelectionKey.OP_READ, new Connection());
+		}
+	}
+
+	private void read(SelectionKey key) throws IOException {
+		Connection connection = (Connection) key.attachment();
+		SocketChannel channel = (SocketChannel) key.channel();
+
+		if (!connection.mBuffer.hasRemaining()) {
+			if (connection.mBuffer.capacity() >= MAX_REQUEST_SIZE) {
+				respond(key, BAD_REQUEST);
+				return;
+			}
+			ByteBuffer larger = ByteBuffer.allocate(Math.min(connection.mBuffer.capacity() * 2, MAX_REQUEST_SIZE));
+			connection.mBuffer.flip();
+			larger.put(connection.mBuffer);
+			connection.mBuffer = larger;
+		}
+
+		if (channel.read(connection.mBuffer) == -1) {
+			closeConnection(key);
+			return;
+		}
+		connection.mLastActive = System.currentTimeMillis();
+
+		byte[] response = handle(connection.mBuffer);
+		if (response != null) {
+			respond(key, response);
+		}
+	}
+
+	/**
+	 * @return the response once the whole request has arrived, or null to keep
+	 * reading
+	 */
+	private byte[] handle(ByteBuffer buffer) {
+		byte[] bytes = buffer.array();
+		int length = buffer.position();
+
+		int headerEnd = indexOfBlankLine(bytes, length);
+		if (headerEnd == -1) {
+			return null;
+		}
+
+		// Request and header lines are ASCII
+		String[] lines = new String(bytes, 0, headerEnd, ISO_8859_1).split("\r?\n");
+		String[] requestLine = lines[0].split(" ");
+		if (requestLine.length < 2) {
+			return BAD_REQUEST;
+		}
+
+		String sid = null;
+		long seq = -1;
+		int contentLength = 0;
+		boolean chunked = false;
+		for (int i = 1; i < lines.length; i++) {
+			int colon = lines[i].indexOf(':');
+			if (colon == -1) {
+				continue;
+			}
+			String name = lines[i].substring(0, colon).trim();
+			String value = lines[i].substring(colon + 1).trim();
+			try {
+				if (name.equalsIgnoreCase("SID")) {
+					sid = value;
+				}
+				else if (name.equalsIgnoreCase("SEQ")) {
+					seq = Long.parseLong(value);
+				}
+				else if (name.equalsIgnoreCase("Content-Length")) {
+					contentLength = Integer.parseInt(value);
+				}
+				else if (name.equalsIgnoreCase("Transfer-Encoding")) {
+					if (!value.equalsIgnoreCase("chunked")) {
+						return NOT_IMPLEMENTED;
+					}
+					chunked = true;
+				}
+			}
+			catch (NumberFormatException e) {
+				return BAD_REQUEST;
+			}
+		}
+
+		int bodyStart = headerEnd + (bytes[headerEnd] == '\r' ? 4 : 2);
+		byte[] body;
+		if (chunked) {
+			try {
+				body = dechunk(bytes, bodyStart, length);
+			}
+			catch (NumberFormatException e) {
+				return BAD_REQUEST;
+			}
+			if (body == null) {
+				return null;
+			}
+		}
+		else {
+			if (contentLength < 0 || bodyStart + contentLength > MAX_REQUEST_SIZE) {
+				return BAD_REQUEST;
+			}
+			if (length < bodyStart + contentLength) {
+				return null;
+			}
+			body = new byte[contentLength];
+			System.arraycopy(bytes, bodyStart, body, 0, contentLength);
+		}
+
+		if (!requestLine[0].equals("NOTIFY")) {
+			return METHOD_NOT_ALLOWED;
+		}
+
+		try {
+			return mListener.onNotify(requestLine[1], sid, seq, body) ? OK : PRECONDITION_FAILED;
+		}
+		catch (RuntimeException e) {
+			UPnPLog.e(TAG, "Error handling event: " + e);
+			return OK;
+		}
+	}
+
+	private void respond(SelectionKey key, byte[] response) throws IOException {
+		Connection connection = (Connection) key.attachment();
+		connection.mResponse = ByteBuffer.wrap(response);
+		key.interestOps(SelectionKey.OP_WRITE);
+		write(key);
+	}
+
+	private void write(SelectionKey key) throws IOException {
+		Connection connection = (Connection) key.attachment();
+		((SocketChannel) key.channel()).write(connection.mResponse);
+		if (!connection.mResponse.hasRemaining()) {
+			closeConnection(key);
+		}
+	}
+
+	private void closeIdleConnections() {
+		long idle = System.currentTimeMillis() - IDLE_TIMEOUT_MILLIS;
+		for (SelectionKey key : mSelector.keys()) {
+			Object attachment = key.attachment();
+			if (attachment instanceof Connection && ((Connection) attachment).mLastActive < idle) {
+				closeConnection(key);
+			}
+		}
+	}
+
+	private static void closeConnection(SelectionKey key) {
+		key.cancel();
+		try {
+			key.channel().close();
+		}
+		catch (IOException e) {
+			// Ignore
+		}
+	}
+
+	/**
+	 * Stops serving and closes every connection. Safe to call from any thread.
+	 */
+	@Override
+	public void close() {
+		mStopped = true;
+		if (Thread.currentThread() != mThread) {
+			// The server thread closes everything on its way out
+			mSelector.wakeup();
+			return;
+		}
+		for (SelectionKey key : mSelector.keys()) {
+			closeConnection(key);
+		}
+		try {
+			mServer.close();
+			mSelector.close();
+		}
+		catch (IOException e) {
+			// Ignore
+		}
+	}
+
+	////////////////////////////////////////////////////////////////////////////////
+	// Helpers
+	////////////////////////////////////////////////////////////////////////////////
+
+	private static byte[] response(String status) {
+		return ("HTTP/1.1 " + status + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n").getBytes(ISO_8859_1);
+	}
+
+	/**
+	 * Decodes a chunked body starting at {@code start}. Chunk extensions and
+	 * trailers are skipped.
+	 *
+	 * @return the body, or null if the last chunk hasn't arrived yet
+	 * @throws NumberFormatException if a chunk size is malformed
+	 */
+	private static byte[] dechunk(byte[] bytes, int start, int length) {
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		int i = start;
+		while (true) {
+			int lineEnd = indexOf(bytes, '\n', i, length);
+			if (lineEnd == -1) {
+				return null;
+			}
+			String line = new String(bytes, i, lineEnd - i, ISO_8859_1);
+			int semicolon = line.indexOf(';');
+			int size = Integer.parseInt((semicolon == -1 ? line : line.substring(0, semicolon)).trim(), 16);
+			if (size < 0) {
+				throw new NumberFormatException("negative chunk size");
+			}
+			i = lineEnd + 1;
+			if (size == 0) {
+				break;
+			}
+			if (length - i < size) {
+				return null;
+			}
+			body.write(bytes, i, size);
+			// Skip the CRLF after the data
+			i = indexOf(bytes, '\n', i + size, length);
+			if (i == -1) {
+				return null;
+			}
+			i++;
+		}
+
+		// Trailers, up to a blank line
+		while (true) {
+			int lineEnd = indexOf(bytes, '\n', i, length);
+			if (lineEnd == -1) {
+				return null;
+			}
+			boolean blank = lineEnd == i || (lineEnd == i + 1 && bytes[i] == '\r');
+			i = lineEnd + 1;
+			if (blank) {
+				return body.toByteArray();
+			}
+		}
+	}
+
+	private static int indexOf(byte[] bytes, char c, int from, int length) {
+		for (int i = from; i < length; i++) {
+			if (bytes[i] == c) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * The index of the line break that ends the headers (CRLFCRLF, or LFLF from
+	 * sloppy senders), or -1 if it hasn't arrived yet.
+	 */
+	private static int indexOfBlankLine(byte[] bytes, int length) {
+		for (int i = 0; i + 1 < length; i++) {
+			if (bytes[i] == '\n' && bytes[i + 1] == '\n') {
+				return i;
+			}
+			if (i + 3 < length && bytes[i] == '\r' && bytes[i + 1] == '\n' && bytes[i + 2] == '\r' && bytes[i + 3] == '\n') {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,467 @@
+/*
+ * Copyright (C) 2015 Doug Melton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dgmltn.upnpbrowser;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.squareup.okhttp.Callback;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+
+import rx.Observable;
+import rx.Subscriber;
+import rx.functions.Action0;
+import rx.schedulers.Schedulers;
+import rx.subjects.PublishSubject;
+import rx.subjects.Subject;
+import rx.subscriptions.Subscriptions;
+
+/**
+ * Subscribes to GENA events (UDA section 4) and publishes them as one
+ * Observable per device and service. Events arrive at a shared
+ * {@link GENAServer}; each subscription gets its own callback path, so events
+ * that race ahead of the SUBSCRIBE response are still routed.
+ * <p>
+ * Subscriptions are renewed before their TIMEOUT runs out. Renewals are
+ * batched: whenever one is due, every subscription due within the next
+ * {@link #RENEW_BATCH_MILLIS} is renewed with it, concurrently, over the
+ * shared HTTP client.
+ */
+public class GENASubscriptionManager implements GENAServer.Listener, Closeable {
+
+	private static String TAG = GENASubscriptionManager.class.getName();
+
+	public static final int DEFAULT_TIMEOUT_SECONDS = 1800;
+	public static final long RENEW_BATCH_MILLIS = 60 * 1000;
+
+	// Renew this long before expiry at the latest
+	private static final long RENEW_MARGIN_MILLIS = 30 * 1000;
+
+	private static class Subscription {
+		final String mPath;
+		final String mUDN;
+		final String mServiceId;
+		final URL mEventUrl;
+		final Subject<GENAEvent, GENAEvent> mEvents = PublishSubject.<GENAEvent>create().toSerialized();
+
+		// Guarded by this
+		String mSID;
+		long mRenewAt;
+		boolean mCancelled;
+
+		Subscription(String path, String udn, String serviceId, URL eventUrl) {
+			mPath = path;
+			mUDN = udn;
+			mServiceId = serviceId;
+			mEventUrl = eventUrl;
+		}
+
+		synchronized String getSID() {
+			return mSID;
+		}
+	}
+
+	private final OkHttpClient mClient;
+	private final ScheduledExecutorService mExecutor;
+	private final AtomicInteger mPathCount = new AtomicInteger();
+	private final ConcurrentHashMap<String, Subscription> mByPath = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, Observable<GENAEvent>> mStreams = new ConcurrentHashMap<>();
+
+	// Guarded by this
+	private GENAServer mServer;
+	private ScheduledFuture<?> mNextRenewal;
+
+	public GENASubscriptionManager(OkHttpClient client) {
+		mClient = client;
+		mExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "upnp-gena-renew");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Events from {@code service} of {@code device}, starting with the initial
+	 * event that reports every evented variable. Subscribes on first
+	 * subscription and unsubscribes (from the device) when the last subscriber
+	 * leaves. Events are delivered on the server thread.
+	 */
+	public Observable<GENAEvent> observe(final UPnPDevice device, final UPnPDescription.Service service) {
+		final String key = device.getUDN() + "|" + service.getServiceId();
+		Observable<GENAEvent> stream = mStreams.get(key);
+		if (stream != null) {
+			return stream;
+		}
+
+		final AtomicReference<Observable<GENAEvent>> created = new AtomicReference<>();
+		Action0 forget = new Action0() {
+			@Override
+			public void call() {
+				mStreams.remove(key, created.get());
+			}
+		};
+		created.set(Observable.create(new Observable.OnSubscribe<GENAEvent>() {
+			@Override
+			public void call(Subscriber<? super GENAEvent> subscriber) {
+				try {
+					final Subscription subscription = new Subscription(
+						"/" + mPathCount.incrementAndGet(), device.getUDN(), service.getServiceId(),
+						getEventUrl(device, service));
+					subscriber.add(Subscriptions.create(new Action0() {
+						@Override
+						public void call() {
+							cancel(subscription);
+						}
+					}));
+					subscription.mEvents.unsafeSubscribe(subscriber);
+					subscribe(subscription);
+				}
+				catch (Exception e) {
+					subscriber.onError(e);
+				}
+			}
+		})
+			.subscribeOn(Schedulers.io())
+			.doOnTerminate(forget)
+			.doOnUnsubscribe(forget)
+			.share());
+
+		stream = mStreams.putIfAbsent(key, created.get());
+		return stream != null ? stream : created.get();
+	}
+
+	private static URL getEventUrl(UPnPDevice device, UPnPDescription.Service service) throws IOException {
+		UPnPDescription description = device.getDescription();
+		if (service.getEventSubURL() == null || service.getEventSubURL().length() == 0) {
+			throw new IOException("Service is not evented: " + service.getServiceId());
+		}
+		return description != null
+			? description.resolveUrl(device.getLocation(), service.getEventSubURL())
+			: new URL(device.getLocation(), service.getEventSubURL());
+	}
+
+	////////////////////////////////////////////////////////////////////////////////
+	// SUBSCRIBE / renew / UNSUBSCRIBE
+	////////////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Sends the initial SUBSCRIBE. Blocks.
+	 */
+	private void subscribe(Subscription subscription) throws IOException {
+		mByPath.put(subscription.mPath, subscription);
+
+		Request request = new Request.Builder()
+			.url(subscription.mEventUrl)
+			.method("SUBSCRIBE", null)
+			.header("CALLBACK", "<" + getCallbackUrl(subscription) + ">")
+			.header("NT", "upnp:event")
+			.header("TIMEOUT", "Second-" + DEFAULT_TIMEOUT_SECONDS)
+			.build();
+
+		Response response = mClient.newCall(request).execute();
+		try {
+			if (!response.isSuccessful() || response.header("SID") == null) {
+				mByPath.remove(subscription.mPath);
+				throw new IOException("SUBSCRIBE failed: " + response);
+			}
+			subscribed(subscription, response);
+		}
+		finally {
+			response.body().close();
+		}
+	}
+
+	private void subscribed(Subscription subscription, Response response) {
+		long timeout = parseTimeout(response.header("TIMEOUT")) * 1000L;
+		boolean cancelled;
+		// Renewal responses may leave the SID out; keep the one we have
+		String sid = response.header("SID");
+		synchronized (subscription) {
+			if (sid != null) {
+				subscription.mSID = sid;
+			}
+			// Renew at three quarters of the way through, or a bit before the end
+			subscription.mRenewAt = System.currentTimeMillis() + Math.min(timeout * 3 / 4, timeout - RENEW_MARGIN_MILLIS);
+			cancelled = subscription.mCancelled;
+		}
+		if (cancelled) {
+			// Unsubscribed while the SUBSCRIBE was in flight
+			unsubscribe(subscription);
+		}
+		else {
+			scheduleRenewals();
+		}
+	}
+
+	private void renew(final Subscription subscription) {
+		String sid = subscription.getSID();
+		if (sid == null) {
+			// Resubscribing since renewDue() looked
+			return;
+		}
+		Request request = new Request.Builder()
+			.url(subscription.mEventUrl)
+			.method("SUBSCRIBE", null)
+			.header("SID", sid)
+			.header("TIMEOUT", "Second-" + DEFAULT_TIMEOUT_SECONDS)
+			.build();
+
+		mClient.newCall(request).enqueue(new Callback() {
+			@Override
+			public void onFailure(Request request, IOException e) {
+				resubscribe(subscription, e);
+			}
+
+			@Override
+			public void onResponse(Response response) throws IOException {
+				try {
+					if (response.isSuccessful()) {
+						subscribed(subscription, response);
+					}
+					else {
+						// 412: the device forgot us (e.g. it rebooted)
+						resubscribe(subscription, new IOException("Renewal failed: " + response));
+					}
+				}
+				finally {
+					response.body().close();
+				}
+			}
+		});
+	}
+
+	private void resubscribe(final Subscription subscription, IOException cause) {
+		UPnPLog.w(TAG, "Resubscribing to " + subscription.mEventUrl + ": " + cause);
+		synchronized (subscription) {
+			if (subscription.mCancelled) {
+				return;
+			}
+			subscription.mSID = null;
+		}
+		mExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					subscribe(subscription);
+				}
+				catch (IOException e) {
+					mByPath.remove(subscription.mPath);
+					subscription.mEvents.onError(e);
+				}
+			}
+		});
+	}
+
+	private void cancel(Subscription subscription) {
+		synchronized (subscription) {
+			subscription.mCancelled = true;
+		}
+		unsubscribe(subscription);
+	}
+
+	/**
+	 * Fire and forget; the device drops us at the end of the TIMEOUT anyway.
+	 */
+	private void unsubscribe(Subscription subscription) {
+		mByPath.remove(subscription.mPath);
+		String sid = subscription.getSID();
+		if (sid == null) {
+			return;
+		}
+
+		Request request = new Request.Builder()
+			.url(subscription.mEventUrl)
+			.method("UNSUBSCRIBE", null)
+			.header("SID", sid)
+			.build();
+
+		mClient.newCall(request).enqueue(new Callback() {
+			@Override
+			public void onFailure(Request request, IOException e) {
+				// Ignore
+			}
+
+			@Override
+			public void onResponse(Response response) throws IOException {
+				response.body().close();
+			}
+		});
+	}
+
+	////////////////////////////////////////////////////////////////////////////////
+	// Batched renewal
+	////////////////////////////////////////////////////////////////////////////////
+
+	private synchronized void scheduleRenewals() {
+		long next = Long.MAX_VALUE;
+		for (Subscription subscription : mByPath.values()) {
+			synchronized (subscription) {
+				if (subscription.mSID != null) {
+					next = Math.min(next, subscription.mRenewAt);
+				}
+			}
+		}
+
+		if (mNextRenewal != null) {
+			mNextRenewal.cancel(false);
+			mNextRenewal = null;
+		}
+		if (next != Long.MAX_VALUE) {
+			long delay = Math.max(0, next - System.currentTimeMillis());
+			mNextRenewal = mExecutor.schedule(new Runnable() {
+				@Override
+				public void run() {
+					renewDue();
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private void renewDue() {
+		long horizon = System.currentTimeMillis() + RENEW_BATCH_MILLIS;
+		for (Subscription subscription : mByPath.values()) {
+			boolean due;
+			synchronized (subscription) {
+				due = subscription.mSID != null && !subscription.mCancelled && subscription.mRenewAt <= horizon;
+				if (due) {
+					// Not due again until the renewal answers
+					subscription.mRenewAt = Long.MAX_VALUE;
+				}
+			}
+			if (due) {
+				renew(subscription);
+			}
+		}
+		scheduleRenewals();
+	}
+
+	////////////////////////////////////////////////////////////////////////////////
+	// Events
+	////////////////////////////////////////////////////////////////////////////////
+
+	@Override
+	public boolean onNotify(String path, String sid, long seq, byte[] body) {
+		Subscription subscription = mByPath.get(path);
+		if (subscription == null) {
+			return false;
+		}
+		String current = subscription.getSID();
+		if (current != null && sid != null && !current.equals(sid)) {
+			return false;
+		}
+
+		Map<String, String> properties;
+		try {
+			properties = GENAPropertySetParser.parse(new ByteArrayInputStream(body));
+		}
+		catch (Exception e) {
+			// Acknowledge anyway, or the device will keep retrying
+			UPnPLog.w(TAG, "Bad event from " + subscription.mEventUrl + ": " + e);
+			return true;
+		}
+
+		subscription.mEvents.onNext(new GENAEvent(subscription.mUDN, subscription.mServiceId, sid, seq, properties));
+		return true;
+	}
+
+	////////////////////////////////////////////////////////////////////////////////
+	// Callback server
+	////////////////////////////////////////////////////////////////////////////////
+
+	private synchronized GENAServer getServer() throws IOException {
+		if (mServer == null) {
+			mServer = new GENAServer(this);
+		}
+		return mServer;
+	}
+
+	/**
+	 * The callback URL on whichever local address routes to the device.
+	 */
+	private String getCallbackUrl(Subscription subscription) throws IOException {
+		InetAddress local = getLocalAddressFor(InetAddress.getByName(subscription.mEventUrl.getHost()));
+		String host = local.getHostAddress();
+		if (local instanceof Inet6Address) {
+			int scope = host.indexOf('%');
+			host = "[" + (scope == -1 ? host : host.substring(0, scope)) + "]";
+		}
+		return "http://" + host + ":" + getServer().getPort() + subscription.mPath;
+	}
+
+	private static InetAddress getLocalAddressFor(InetAddress remote) throws IOException {
+		// Connecting a datagram socket picks a route without sending anything
+		DatagramSocket socket = new DatagramSocket();
+		try {
+			socket.connect(remote, 9);
+			return socket.getLocalAddress();
+		}
+		finally {
+			socket.close();
+		}
+	}
+
+	/**
+	 * Unsubscribes from everything and stops the callback server.
+	 */
+	@Override
+	public void close() {
+		for (Subscription subscription : mByPath.values()) {
+			cancel(subscription);
+		}
+		synchronized (this) {
+			if (mNextRenewal != null) {
+				mNextRenewal.cancel(false);
+			}
+			if (mServer != null) {
+				mServer.close();
+				mServer = null;
+			}
+		}
+	}
+
+	private static long parseTimeout(String timeout) {
+		// "Second-1800" or "Second-infinite"
+		if (timeout != null && timeout.regionMatches(true, 0, "Second-", 0, 7)) {
+			try {
+				return Math.max(60, Long.parseLong(timeout.substring(7).trim()));
+			}
+			catch (NumberFormatException e) {
+				// Fall through
+			}
+		}
+		return DEFAULT_TIMEOUT_SECONDS;
+	}
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2015 Doug Melton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dgmltn.upnpbrowser;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+
+/**
+ * Selector driven SSDP transport. Any number of non-blocking DatagramChannels
+ * (one per local address, IPv4 or IPv6) are serviced by the single thread that
+ * calls {@link #run}. Receive and send buffers are direct and reused for the
+ * lifetime of the engine, and {@link #stop} may be called from any thread to
+ * end a run immediately.
+ */
+public class SSDPEngine implements Closeable {
+
+	private static String TAG = SSDPEngine.class.getName();
+
+	public static final int MAX_DATAGRAM_SIZE = 2048;
+
+	public interface Listener {
+		/**
+		 * Called on the engine thread for every datagram received. {@code buffer}
+		 * is flipped and only valid for the duration of the call.
+		 */
+		public void onDatagram(ByteBuffer buffer, SocketAddress source);
+	}
+
+	public interface Timer {
+		/**
+		 * Called on the engine thread when a run starts, and whenever the engine
+		 * wakes up after that.
+		 *
+		 * @return how many milliseconds until the timer wants to be called again,
+		 * or a negative number to end the run
+		 */
+		public long onTimer(long now);
+	}
+
+	private final Selector mSelector;
+	private final ByteBuffer mReceiveBuffer = ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
+	private final ByteBuffer mSendBuffer = ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
+
+	private volatile boolean mStopped;
+
+	public SSDPEngine() throws IOException {
+		mSelector = Selector.open();
+	}
+
+	/**
+	 * Opens a channel bound to an ephemeral port on {@code localAddress}. Messages
+	 * passed to {@link #send} or {@link #broadcast} go from this channel to {@code group}.
+	 * Multicasts leave through {@code intf}, not whichever interface the
+	 * routing table prefers; this matters most for IPv6 link-local groups.
+	 */
+	public DatagramChannel open(InetAddress localAddress, NetworkInterface intf, SocketAddress group) throws IOException {
+		DatagramChannel channel = DatagramChannel.open();
+		try {
+			channel.configureBlocking(false);
+			channel.socket().bind(new InetSocketAddress(localAddress, 0));
+			setMulticastInterface(channel, intf);
+			channel.register(mSelector, SelectionKey.OP_READ, group);
+		}
+		catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		return channel;
+	}
+
+	private static void setMulticastInterface(DatagramChannel channel, NetworkInterface intf) {
+		try {
+			channel.setOption(StandardSocketOptions.IP_MULTICAST_IF, intf);
+		}
+		catch (NoSuchMethodError e) {
+			// Android before 7.0: the bound address picks the interface
+		}
+		catch (IOException | UnsupportedOperationException e) {
+			UPnPLog.w(TAG, "unable to send multicasts through " + intf.getName() + ": " + e);
+		}
+	}
+
+	public int getChannelCount() {
+		return mSelector.keys().size();
+	}
+
+	/**
+	 * Sends {@code message} from every open channel to its multicast group.
+	 * Failure of one channel (for example an interface that went down) does not
+	 * prevent delivery on the others.
+	 */
+	public void broadcast(byte[] message) {
+		for (SelectionKey key : mSelector.keys()) {
+			send((DatagramChannel) key.channel(), message);
+		}
+	}
+
+	/**
+	 * Sends {@code message} from {@code channel} to the multicast group it was
+	 * opened with.
+	 *
+	 * @return false if the send failed
+	 */
+	public boolean send(DatagramChannel channel, byte[] message) {
+		SelectionKey key = channel.keyFor(mSelector);
+		if (key == null) {
+			return false;
+		}
+		mSendBuffer.clear();
+		mSendBuffer.put(message);
+		mSendBuffer.flip();
+		try {
+			channel.send(mSendBuffer, (SocketAddress) key.attachment());
+			return true;
+		}
+		catch (IOException e) {
+			UPnPLog.e(TAG, "send failed on " + channel.socket().getLocalSocketAddress() + ": " + e);
+			return false;
+		}
+	}
+
+	/**
+	 * Dispatches received datagrams to {@code listener} until {@code timeoutMillis}
+	 * elapses or {@link #stop} is called.
+	 */
+	public void run(long timeoutMillis, Listener listener) throws IOException {
+		final long deadline = System.currentTimeMillis() + timeoutMillis;
+		run(new Timer() {
+			@Override
+			public long onTimer(long now) {
+				return now < deadline ? deadline - now : -1;
+			}
+		}, listener);
+	}
+
+	/**
+	 * Dispatches received datagrams to {@code listener} until {@code timer} ends
+	 * the run or {@link #stop} is called.
+	 */
+	public void run(Timer timer, Listener listener) throws IOException {
+		while (!mStopped) {
+			long wait = timer.onTimer(System.currentTimeMillis());
+			if (wait < 0 || mStopped) {
+				return;
+			}
+
+			// select(0) would block forever
+			mSelector.select(Math.max(1, wait));
+
+			Iterator<SelectionKey> keys = mSelector.selectedKeys().iterator();
+			while (keys.hasNext() && !mStopped) {
+				SelectionKey key = keys.next();
+				keys.remove();
+				if (!key.isValid() || !key.isReadable()) {
+					continue;
+				}
+				DatagramChannel channel = (DatagramChannel) key.channel();
+
+				// Drain everything queued on this channel before selecting again
+				SocketAddress source;
+				while (!mStopped) {
+					mReceiveBuffer.clear();
+					source = channel.receive(mReceiveBuffer);
+					if (source == null) {
+						break;
+					}
+					mReceiveBuffer.flip();
+					listener.onDatagram(mReceiveBuffer, source);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Ends the current (or next) {@link #run} as soon as possible. Safe to call
+	 * from any thread.
+	 */
+	public void stop() {
+		mStopped = true;
+		mSelector.wakeup();
+	}
+
+	public boolean isStopped() {
+		return mStopped;
+	}
+
+	/**
+	 * Closes every channel and the selector.
+	 */
+	@Override
+	public void close() {
+		for (SelectionKey key : mSelector.keys()) {
+			try {
+				key.channel().close();
+			}
+			catch (IOException e) {
+				// Ignore
+			}
+		}
+		try {
+			mSelector.close();
+		}
+		catch (IOException e) {
+			// Ignore
+		}
+	}
+}
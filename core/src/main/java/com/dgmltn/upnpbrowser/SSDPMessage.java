@@ -0,0 +1,330 @@
+/*
+ * Copyright (C) 2015 Doug Melton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dgmltn.upnpbrowser;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A reusable, allocation free view over an SSDP datagram. {@link #parse} only
+ * records where the start line and the known headers live in the buffer; header
+ * names are matched case-insensitively byte by byte, and values are turned into
+ * Strings only when asked for.
+ * <p>
+ * Instances are not thread safe and are only valid until the underlying buffer
+ * is reused, so callers must copy out whatever they want to keep.
+ */
+public class SSDPMessage {
+
+	public enum Header {
+		LOCATION("LOCATION"),
+		SERVER("SERVER"),
+		ST("ST"),
+		USN("USN"),
+		CACHE_CONTROL("CACHE-CONTROL"),
+		NT("NT"),
+		NTS("NTS"),
+		BOOTID("BOOTID.UPNP.ORG"),
+		CONFIGID("CONFIGID.UPNP.ORG");
+
+		final byte[] mName;
+
+		Header(String name) {
+			mName = name.getBytes();
+		}
+	}
+
+	private static final Header[] HEADERS = Header.values();
+
+	private static final byte[] HTTP = "HTTP/".getBytes();
+	private static final byte[] NOTIFY = "NOTIFY".getBytes();
+	private static final byte[] M_SEARCH = "M-SEARCH".getBytes();
+	private static final byte[] MAX_AGE = "max-age".getBytes();
+
+	private ByteBuffer mBuffer;
+	private int mStart;
+	private int mEnd;
+	private int mStartLineEnd;
+
+	private final int[] mValueStart = new int[HEADERS.length];
+	private final int[] mValueEnd = new int[HEADERS.length];
+
+	public SSDPMessage() {
+		reset(null);
+	}
+
+	/**
+	 * Indexes the bytes between {@code buffer}'s position and limit. The buffer's
+	 * position and limit are not modified.
+	 *
+	 * @return false if the datagram does not contain a start line
+	 */
+	public boolean parse(ByteBuffer buffer) {
+		reset(buffer);
+
+		int end = mEnd;
+		int lineStart = mStart;
+		boolean first = true;
+		while (lineStart < end) {
+			int lineEnd = indexOf(buffer, (byte) '\n', lineStart, end);
+			int next = lineEnd == -1 ? end : lineEnd + 1;
+			if (lineEnd == -1) {
+				lineEnd = end;
+			}
+			if (lineEnd > lineStart && buffer.get(lineEnd - 1) == '\r') {
+				lineEnd--;
+			}
+
+			if (first) {
+				mStartLineEnd = lineEnd;
+				first = false;
+			}
+			else if (lineEnd == lineStart) {
+				// Blank line: end of headers
+				break;
+			}
+			else {
+				parseHeader(buffer, lineStart, lineEnd);
+			}
+
+			lineStart = next;
+		}
+
+		return mStartLineEnd > mStart;
+	}
+
+	private void parseHeader(ByteBuffer buffer, int lineStart, int lineEnd) {
+		int colon = indexOf(buffer, (byte) ':', lineStart, lineEnd);
+		if (colon == -1) {
+			return;
+		}
+
+		int nameStart = skipWhitespace(buffer, lineStart, colon);
+		int nameEnd = trimWhitespace(buffer, nameStart, colon);
+		int nameLength = nameEnd - nameStart;
+
+		for (int i = 0; i < HEADERS.length; i++) {
+			byte[] name = HEADERS[i].mName;
+			if (name.length == nameLength && regionMatchesIgnoreCase(buffer, nameStart, name)) {
+				int valueStart = skipWhitespace(buffer, colon + 1, lineEnd);
+				mValueStart[i] = valueStart;
+				mValueEnd[i] = trimWhitespace(buffer, valueStart, lineEnd);
+				return;
+			}
+		}
+	}
+
+	private void reset(ByteBuffer buffer) {
+		mBuffer = buffer;
+		mStart = buffer == null ? 0 : buffer.position();
+		mEnd = buffer == null ? 0 : buffer.limit();
+		mStartLineEnd = mStart;
+		Arrays.fill(mValueStart, -1);
+		Arrays.fill(mValueEnd, -1);
+	}
+
+	////////////////////////////////////////////////////////////////////////////////
+	// Start line
+	////////////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * An M-SEARCH response, e.g. "HTTP/1.1 200 OK"
+	 */
+	public boolean isResponse() {
+		return startLineStartsWith(HTTP);
+	}
+
+	/**
+	 * An unsolicited advertisement, e.g. "NOTIFY * HTTP/1.1"
+	 */
+	public boolean isNotify() {
+		return startLineStartsWith(NOTIFY);
+	}
+
+	/**
+	 * A search request, e.g. "M-SEARCH * HTTP/1.1"
+	 */
+	public boolean isSearch() {
+		return startLineStartsWith(M_SEARCH);
+	}
+
+	private boolean startLineStartsWith(byte[] prefix) {
+		return mStartLineEnd - mStart >= prefix.length && regionMatchesIgnoreCase(mBuffer, mStart, prefix);
+	}
+
+	////////////////////////////////////////////////////////////////////////////////
+	// Headers
+	////////////////////////////////////////////////////////////////////////////////
+
+	public boolean has(Header header) {
+		return mValueStart[header.ordinal()] != -1;
+	}
+
+	/**
+	 * Decodes the value of {@code header}, or returns null if it's not present.
+	 */
+	public String get(Header header) {
+		int i = header.ordinal();
+		if (mValueStart[i] == -1) {
+			return null;
+		}
+		return decode(mBuffer, mValueStart[i], mValueEnd[i]);
+	}
+
+	/**
+	 * Compares the value of {@code header} to {@code value} (ASCII,
+	 * case-insensitively) without decoding it.
+	 */
+	public boolean valueEqualsIgnoreCase(Header header, String value) {
+		int i = header.ordinal();
+		if (mValueStart[i] == -1 || mValueEnd[i] - mValueStart[i] != value.length()) {
+			return false;
+		}
+		for (int j = 0; j < value.length(); j++) {
+			if (toLower(mBuffer.get(mValueStart[i] + j)) != toLower((byte) value.charAt(j))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * A 64-bit FNV-1a hash of the raw value bytes of {@code header}, or 0 if it's
+	 * not present.
+	 */
+	public long hash(Header header) {
+		int i = header.ordinal();
+		if (mValueStart[i] == -1) {
+			return 0L;
+		}
+		long hash = 0xcbf29ce484222325L;
+		for (int j = mValueStart[i]; j < mValueEnd[i]; j++) {
+			hash ^= mBuffer.get(j) & 0xff;
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	/**
+	 * Parses the max-age directive out of CACHE-CONTROL, e.g.
+	 * "max-age = 1800" => 1800.
+	 *
+	 * @return the lifetime in seconds, or {@code defaultValue} if absent or
+	 * malformed
+	 */
+	public int getMaxAge(int defaultValue) {
+		int i = Header.CACHE_CONTROL.ordinal();
+		if (mValueStart[i] == -1) {
+			return defaultValue;
+		}
+		int end = mValueEnd[i];
+		for (int p = mValueStart[i]; p + MAX_AGE.length <= end; p++) {
+			if (!regionMatchesIgnoreCase(mBuffer, p, MAX_AGE)) {
+				continue;
+			}
+			p = skipWhitespace(mBuffer, p + MAX_AGE.length, end);
+			if (p >= end || mBuffer.get(p) != '=') {
+				return defaultValue;
+			}
+			p = skipWhitespace(mBuffer, p + 1, end);
+			int value = 0;
+			int digits = 0;
+			for (; p < end; p++) {
+				byte b = mBuffer.get(p);
+				if (b < '0' || b > '9' || digits >= 9) {
+					break;
+				}
+				value = value * 10 + (b - '0');
+				digits++;
+			}
+			return digits == 0 ? defaultValue : value;
+		}
+		return defaultValue;
+	}
+
+	/**
+	 * Copies the entire datagram.
+	 */
+	public byte[] toByteArray() {
+		byte[] bytes = new byte[mEnd - mStart];
+		for (int i = mStart; i < mEnd; i++) {
+			bytes[i - mStart] = mBuffer.get(i);
+		}
+		return bytes;
+	}
+
+	/**
+	 * Decodes the entire datagram.
+	 */
+	@Override
+	public String toString() {
+		return mBuffer == null ? "" : decode(mBuffer, mStart, mEnd);
+	}
+
+	////////////////////////////////////////////////////////////////////////////////
+	// Byte helpers
+	////////////////////////////////////////////////////////////////////////////////
+
+	private static String decode(ByteBuffer buffer, int start, int end) {
+		// SSDP headers are ASCII; treat bytes as ISO-8859-1
+		char[] chars = new char[end - start];
+		for (int i = start; i < end; i++) {
+			chars[i - start] = (char) (buffer.get(i) & 0xff);
+		}
+		return new String(chars);
+	}
+
+	private static int indexOf(ByteBuffer buffer, byte b, int start, int end) {
+		for (int i = start; i < end; i++) {
+			if (buffer.get(i) == b) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static int skipWhitespace(ByteBuffer buffer, int start, int end) {
+		while (start < end && isWhitespace(buffer.get(start))) {
+			start++;
+		}
+		return start;
+	}
+
+	private static int trimWhitespace(ByteBuffer buffer, int start, int end) {
+		while (end > start && isWhitespace(buffer.get(end - 1))) {
+			end--;
+		}
+		return end;
+	}
+
+	private static boolean isWhitespace(byte b) {
+		return b == ' ' || b == '\t';
+	}
+
+	private static boolean regionMatchesIgnoreCase(ByteBuffer buffer, int start, byte[] upper) {
+		for (int i = 0; i < upper.length; i++) {
+			if (toLower(buffer.get(start + i)) != toLower(upper[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static byte toLower(byte b) {
+		return b >= 'A' && b <= 'Z' ? (byte) (b | 0x20) : b;
+	}
+}
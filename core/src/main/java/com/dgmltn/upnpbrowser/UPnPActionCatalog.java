@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2015 Doug Melton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dgmltn.upnpbrowser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Every service offered by a device itself (not by its embedded devices, which
+ * have catalogs of their own), with the actions and state variables from each
+ * service's SCPD, indexed by service type and by action name.
+ *
+ * @see UPnPActionCatalogFetcher
+ */
+public class UPnPActionCatalog {
+
+	public static class Service {
+		private final String mUDN;
+		private final UPnPDescription.Service mService;
+		private final UPnPServiceDescription mDescription;
+
+		Service(String udn, UPnPDescription.Service service, UPnPServiceDescription description) {
+			mUDN = udn;
+			mService = service;
+			mDescription = description;
+		}
+
+		/**
+		 * The UDN of the (possibly embedded) device offering this service.
+		 */
+		public String getUDN() {
+			return mUDN;
+		}
+
+		public String getServiceType() {
+			return mService.getServiceType();
+		}
+
+		public UPnPDescription.Service getService() {
+			return mService;
+		}
+
+		/**
+		 * The parsed SCPD, or null if it couldn't be fetched.
+		 */
+		public UPnPServiceDescription getDescription() {
+			return mDescription;
+		}
+	}
+
+	private final List<Service> mServices;
+	private final Map<String, List<Service>> mByType = new HashMap<>();
+	private final Map<String, List<Service>> mByAction = new HashMap<>();
+
+	UPnPActionCatalog(List<Service> services) {
+		mServices = Collections.unmodifiableList(services);
+		for (Service service : services) {
+			if (service.getServiceType() != null) {
+				index(mByType, typeKey(service.getServiceType()), service);
+			}
+			if (service.mDescription != null) {
+				for (UPnPServiceDescription.Action action : service.mDescription.getActions()) {
+					index(mByAction, action.getName(), service);
+				}
+			}
+		}
+	}
+
+	private static void index(Map<String, List<Service>> index, String key, Service service) {
+		List<Service> services = index.get(key);
+		if (services == null) {
+			services = new ArrayList<>(1);
+			index.put(key, services);
+		}
+		services.add(service);
+	}
+
+	private static String typeKey(String serviceType) {
+		return serviceType.toLowerCase(Locale.US);
+	}
+
+	public List<Service> getServices() {
+		return mServices;
+	}
+
+	/**
+	 * Services of type {@code serviceType}, e.g.
+	 * "urn:schemas-upnp-org:service:RenderingControl:1", compared
+	 * case-insensitively.
+	 */
+	public List<Service> getServices(String serviceType) {
+		List<Service> services = mByType.get(typeKey(serviceType));
+		return services == null ? Collections.<Service>emptyList() : services;
+	}
+
+	/**
+	 * Services that offer an action named {@code actionName}, e.g. "SetVolume".
+	 */
+	public List<Service> findServicesWithAction(String actionName) {
+		List<Service> services = mByAction.get(actionName);
+		return services == null ? Collections.<Service>emptyList() : services;
+	}
+
+	/**
+	 * The first action named {@code actionName} in a service of type
+	 * {@code serviceType}, or null.
+	 */
+	public UPnPServiceDescription.Action getAction(String serviceType, String actionName) {
+		for (Service service : getServices(serviceType)) {
+			if (service.mDescription != null) {
+				UPnPServiceDescription.Action action = service.mDescription.getAction(actionName);
+				if (action != null) {
+					return action;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * The first state variable named {@code name} in a service of type
+	 * {@code serviceType}, or null.
+	 */
+	public UPnPServiceDescription.StateVariable getStateVariable(String serviceType, String name) {
+		for (Service service : getServices(serviceType)) {
+			if (service.mDescription != null) {
+				UPnPServiceDescription.StateVariable variable = service.mDescription.getStateVariable(name);
+				if (variable != null) {
+					return variable;
+				}
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,353 @@
+/*
+ * Copyright (C) 2015 Doug Melton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dgmltn.upnpbrowser;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.squareup.okhttp.Call;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+
+import rx.Observable;
+import rx.Scheduler;
+import rx.Subscriber;
+import rx.functions.Action0;
+import rx.functions.Action1;
+import rx.functions.Func1;
+import rx.schedulers.Schedulers;
+import rx.subscriptions.Subscriptions;
+
+/**
+ * Builds {@link UPnPActionCatalog}s by fetching the SCPD of every service in a
+ * device's description, a few at a time over the shared HTTP client. Nothing
+ * is fetched until a catalog is asked for (or {@link #prefetch}ed).
+ * <p>
+ * Root and embedded devices share one description, so SCPDs are fetched once
+ * per LOCATION, for the whole device tree. They're kept for the device's
+ * max-age, or until its BOOTID or CONFIGID changes, for the most recently
+ * used LOCATIONs. Each device's catalog lists only its own services.
+ */
+public class UPnPActionCatalogFetcher {
+
+	private static String TAG = UPnPActionCatalogFetcher.class.getName();
+
+	public static final int DEFAULT_MAX_CONCURRENT = 4;
+	public static final long DEFAULT_TIMEOUT_MILLIS = 5000;
+
+	private static final int MAX_ENTRIES = 64;
+
+	private static class Location {
+		final String mBootId;
+		final String mConfigId;
+		final long mExpires;
+
+		// Every service in the description, in document order
+		Observable<List<UPnPActionCatalog.Service>> mServices;
+
+		Location(UPnPDevice device, long now) {
+			mBootId = device.getBootId();
+			mConfigId = device.getConfigId();
+			mExpires = now + device.getMaxAge() * 1000L;
+		}
+
+		boolean isCurrent(UPnPDevice device, long now) {
+			return mExpires > now
+				&& equals(mBootId, device.getBootId())
+				&& equals(mConfigId, device.getConfigId());
+		}
+
+		private static boolean equals(String a, String b) {
+			return a == null ? b == null : a.equals(b);
+		}
+	}
+
+	private final OkHttpClient mClient;
+	private final Scheduler mScheduler;
+	private final int mMaxConcurrent;
+	private final long mTimeoutMillis;
+
+	// By LOCATION. Guarded by itself
+	private final LinkedHashMap<String, Location> mEntries = new LinkedHashMap<String, Location>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Location> eldest) {
+			return size() > MAX_ENTRIES;
+		}
+	};
+
+	public UPnPActionCatalogFetcher(OkHttpClient client) {
+		this(client, DEFAULT_MAX_CONCURRENT, DEFAULT_TIMEOUT_MILLIS);
+	}
+
+	/**
+	 * @param timeoutMillis how long each SCPD download may take, from when it
+	 * starts. Services whose SCPD takes longer are listed without one.
+	 */
+	public UPnPActionCatalogFetcher(OkHttpClient client, int maxConcurrent, long timeoutMillis) {
+		mClient = client;
+
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(
+			maxConcurrent, maxConcurrent, 30, TimeUnit.SECONDS,
+			new LinkedBlockingQueue<Runnable>(), new FetchThreadFactory());
+		executor.allowCoreThreadTimeOut(true);
+
+		mScheduler = Schedulers.from(executor);
+		mMaxConcurrent = maxConcurrent;
+		mTimeoutMillis = timeoutMillis;
+	}
+
+	/**
+	 * Emits the catalog for {@code device}: the services of the device itself,
+	 * not of its embedded devices. The SCPDs are fetched on first subscription
+	 * for any device at this LOCATION; concurrent and later callers share that
+	 * fetch. Services whose SCPD can't be fetched are still listed, without a
+	 * description.
+	 */
+	public Observable<UPnPActionCatalog> load(final UPnPDevice device) {
+		return services(device)
+			.map(new Func1<List<UPnPActionCatalog.Service>, UPnPActionCatalog>() {
+				@Override
+				public UPnPActionCatalog call(List<UPnPActionCatalog.Service> services) {
+					return new UPnPActionCatalog(servicesOf(device, services));
+				}
+			});
+	}
+
+	/**
+	 * Starts fetching the SCPDs for {@code device} in the background, so that
+	 * its catalog is ready when someone browses the device.
+	 */
+	public void prefetch(UPnPDevice device) {
+		services(device).subscribe(new Action1<List<UPnPActionCatalog.Service>>() {
+			@Override
+			public void call(List<UPnPActionCatalog.Service> services) {
+			}
+		}, new Action1<Throwable>() {
+			@Override
+			public void call(Throwable throwable) {
+				UPnPLog.w(TAG, "Prefetch failed: " + throwable);
+			}
+		});
+	}
+
+	public void clear() {
+		synchronized (mEntries) {
+			mEntries.clear();
+		}
+	}
+
+	private Observable<List<UPnPActionCatalog.Service>> services(UPnPDevice device) {
+		final String key = device.getLocation().toString();
+		long now = System.currentTimeMillis();
+
+		synchronized (mEntries) {
+			Location entry = mEntries.get(key);
+			if (entry != null && entry.isCurrent(device, now)) {
+				return entry.mServices;
+			}
+
+			final Location created = new Location(device, now);
+			created.mServices = fetch(device)
+				.doOnError(new Action1<Throwable>() {
+					@Override
+					public void call(Throwable throwable) {
+						// Let the next caller try again
+						forget(key, created);
+					}
+				})
+				.cache();
+			mEntries.put(key, created);
+			return created.mServices;
+		}
+	}
+
+	private void forget(String key, Location entry) {
+		synchronized (mEntries) {
+			if (mEntries.get(key) == entry) {
+				mEntries.remove(key);
+			}
+		}
+	}
+
+	/**
+	 * The services offered by {@code device} itself. A device without a UDN,
+	 * or one the description doesn't list, is taken to be the root.
+	 */
+	private static List<UPnPActionCatalog.Service> servicesOf(UPnPDevice device, List<UPnPActionCatalog.Service> all) {
+		String udn = device.getUDN();
+		boolean known = false;
+		if (udn != null) {
+			for (UPnPActionCatalog.Service service : all) {
+				if (udn.equals(service.getUDN())) {
+					known = true;
+					break;
+				}
+			}
+		}
+		String root = all.isEmpty() ? null : all.get(0).getUDN();
+		String wanted = known ? udn : root;
+
+		List<UPnPActionCatalog.Service> own = new ArrayList<>();
+		for (UPnPActionCatalog.Service service : all) {
+			if (wanted == null ? service.getUDN() == null : wanted.equals(service.getUDN())) {
+				own.add(service);
+			}
+		}
+		return own;
+	}
+
+	private Observable<List<UPnPActionCatalog.Service>> fetch(final UPnPDevice device) {
+		return Observable.create(new Observable.OnSubscribe<UPnPDescription>() {
+			@Override
+			public void call(Subscriber<? super UPnPDescription> subscriber) {
+				try {
+					UPnPDescription description = device.loadDescription(mClient);
+					if (description == null) {
+						throw new IOException("No description for " + device.getLocation());
+					}
+					subscriber.onNext(description);
+					subscriber.onCompleted();
+				}
+				catch (Exception e) {
+					subscriber.onError(e);
+				}
+			}
+		})
+			.subscribeOn(mScheduler)
+			.flatMap(new Func1<UPnPDescription, Observable<List<UPnPActionCatalog.Service>>>() {
+				@Override
+				public Observable<List<UPnPActionCatalog.Service>> call(final UPnPDescription description) {
+					final List<UPnPActionCatalog.Service> listed = new ArrayList<>();
+					collectServices(description.getDevice(), listed);
+
+					return Observable.from(listed)
+						.flatMap(new Func1<UPnPActionCatalog.Service, Observable<UPnPActionCatalog.Service>>() {
+							@Override
+							public Observable<UPnPActionCatalog.Service> call(UPnPActionCatalog.Service service) {
+								return fetchService(device, description, service);
+							}
+						}, mMaxConcurrent)
+						.toList()
+						.map(new Func1<List<UPnPActionCatalog.Service>, List<UPnPActionCatalog.Service>>() {
+							@Override
+							public List<UPnPActionCatalog.Service> call(List<UPnPActionCatalog.Service> fetched) {
+								// Keep document order rather than completion order
+								Map<UPnPDescription.Service, UPnPActionCatalog.Service> byService = new IdentityHashMap<>();
+								for (UPnPActionCatalog.Service service : fetched) {
+									byService.put(service.getService(), service);
+								}
+								List<UPnPActionCatalog.Service> ordered = new ArrayList<>(listed.size());
+								for (UPnPActionCatalog.Service service : listed) {
+									ordered.add(byService.get(service.getService()));
+								}
+								return Collections.unmodifiableList(ordered);
+							}
+						});
+				}
+			});
+	}
+
+	/**
+	 * Emits a copy of {@code service} with its SCPD, or without one if the
+	 * download fails or takes longer than the timeout, which starts once a
+	 * thread picks the download up. Unsubscribing cancels the download.
+	 */
+	private Observable<UPnPActionCatalog.Service> fetchService(final UPnPDevice device, final UPnPDescription description, final UPnPActionCatalog.Service service) {
+		return Observable.create(new Observable.OnSubscribe<UPnPActionCatalog.Service>() {
+			@Override
+			public void call(Subscriber<? super UPnPActionCatalog.Service> subscriber) {
+				UPnPServiceDescription scpd = null;
+				try {
+					URL url = description.resolveUrl(device.getLocation(), service.getService().getSCPDURL());
+					final Call call = mClient.newCall(new Request.Builder().url(url).build());
+					Action0 cancel = new Action0() {
+						@Override
+						public void call() {
+							call.cancel();
+						}
+					};
+					subscriber.add(Subscriptions.create(cancel));
+					Scheduler.Worker timer = Schedulers.computation().createWorker();
+					timer.schedule(cancel, mTimeoutMillis, TimeUnit.MILLISECONDS);
+					try {
+						scpd = downloadSCPD(call);
+					}
+					finally {
+						timer.unsubscribe();
+					}
+				}
+				catch (Exception e) {
+					// Ignore errors
+					UPnPLog.w(TAG, "Error: " + e);
+				}
+				subscriber.onNext(new UPnPActionCatalog.Service(service.getUDN(), service.getService(), scpd));
+				subscriber.onCompleted();
+			}
+		})
+			.subscribeOn(mScheduler);
+	}
+
+	private static UPnPServiceDescription downloadSCPD(Call call) throws Exception {
+		Response response = call.execute();
+		try {
+			if (!response.isSuccessful()) {
+				throw new IOException("Unexpected code " + response);
+			}
+			return UPnPServiceDescriptionParser.parse(response.body().byteStream());
+		}
+		finally {
+			response.body().close();
+		}
+	}
+
+	private static void collectServices(UPnPDescription.Device device, List<UPnPActionCatalog.Service> services) {
+		if (device == null) {
+			return;
+		}
+		for (UPnPDescription.Service service : device.getServices()) {
+			if (service.getSCPDURL() != null && service.getSCPDURL().length() > 0) {
+				services.add(new UPnPActionCatalog.Service(device.getUDN(), service, null));
+			}
+		}
+		for (UPnPDescription.Device embedded : device.getDevices()) {
+			collectServices(embedded, services);
+		}
+	}
+
+	private static class FetchThreadFactory implements ThreadFactory {
+		private final AtomicInteger mCount = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "upnp-scpd-" + mCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
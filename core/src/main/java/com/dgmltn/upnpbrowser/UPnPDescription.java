@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2015 Doug Melton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dgmltn.upnpbrowser;
+
+import java.io.Serializable;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The parts of a UPnP device description document we care about: the root
+ * device, its icons and services, and any embedded devices.
+ *
+ * @see UPnPDescriptionParser
+ */
+public class UPnPDescription implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	String mURLBase;
+	String mConfigId;
+	Device mDevice;
+
+	/**
+	 * The deprecated URLBase element, or null if absent. Relative URLs should be
+	 * resolved against the description's LOCATION instead when this is null.
+	 */
+	public String getURLBase() {
+		return mURLBase;
+	}
+
+	/**
+	 * Resolves a (usually relative) URL from this description, such as an
+	 * SCPDURL or eventSubURL, against URLBase if present, otherwise against
+	 * {@code location}.
+	 */
+	public URL resolveUrl(URL location, String url) throws MalformedURLException {
+		URL base = location;
+		if (mURLBase != null && mURLBase.length() > 0) {
+			try {
+				base = new URL(mURLBase);
+			}
+			catch (MalformedURLException e) {
+				// Fall back to LOCATION
+			}
+		}
+		return new URL(base, url);
+	}
+
+	/**
+	 * The configId attribute of the root element (UDA 1.1), or null if absent.
+	 */
+	public String getConfigId() {
+		return mConfigId;
+	}
+
+	public Device getDevice() {
+		return mDevice;
+	}
+
+	public static class Device implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		String mDeviceType;
+		String mFriendlyName;
+		String mManufacturer;
+		String mManufacturerURL;
+		String mModelDescription;
+		String mModelName;
+		String mModelNumber;
+		String mModelURL;
+		String mSerialNumber;
+		String mUDN;
+		String mPresentationURL;
+
+		final List<Icon> mIcons = new ArrayList<>();
+		final List<Service> mServices = new ArrayList<>();
+		final List<Device> mDevices = new ArrayList<>();
+
+		public String getDeviceType() {
+			return mDeviceType;
+		}
+
+		public String getFriendlyName() {
+			return mFriendlyName;
+		}
+
+		public String getManufacturer() {
+			return mManufacturer;
+		}
+
+		public String getManufacturerURL() {
+			return mManufacturerURL;
+		}
+
+		public String getModelDescription() {
+			return mModelDescription;
+		}
+
+		public String getModelName() {
+			return mModelName;
+		}
+
+		public String getModelNumber() {
+			return mModelNumber;
+		}
+
+		public String getModelURL() {
+			return mModelURL;
+		}
+
+		public String getSerialNumber() {
+			return mSerialNumber;
+		}
+
+		public String getUDN() {
+			return mUDN;
+		}
+
+		public String getPresentationURL() {
+			return mPresentationURL;
+		}
+
+		public List<Icon> getIcons() {
+			return mIcons;
+		}
+
+		public List<Service> getServices() {
+			return mServices;
+		}
+
+		/**
+		 * Embedded devices, from deviceList.
+		 */
+		public List<Device> getDevices() {
+			return mDevices;
+		}
+	}
+
+	public static class Icon implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		String mMimeType;
+		int mWidth;
+		int mHeight;
+		int mDepth;
+		String mUrl;
+
+		public String getMimeType() {
+			return mMimeType;
+		}
+
+		public int getWidth() {
+			return mWidth;
+		}
+
+		public int getHeight() {
+			return mHeight;
+		}
+
+		public int getDepth() {
+			return mDepth;
+		}
+
+		public String getUrl() {
+			return mUrl;
+		}
+	}
+
+	public static class Service implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		String mServiceType;
+		String mServiceId;
+		String mSCPDURL;
+		String mControlURL;
+		String mEventSubURL;
+
+		public String getServiceType() {
+			return mServiceType;
+		}
+
+		public String getServiceId() {
+			return mServiceId;
+		}
+
+		public String getSCPDURL() {
+			return mSCPDURL;
+		}
+
+		public String getControlURL() {
+			return mControlURL;
+		}
+
+		public String getEventSubURL() {
+			return mEventSubURL;
+		}
+	}
+}
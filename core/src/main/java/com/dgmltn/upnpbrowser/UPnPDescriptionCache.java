@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2015 Doug Melton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dgmltn.upnpbrowser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+/**
+ * Persists parsed device descriptions so that devices which haven't changed
+ * since the last scan can be shown without an HTTP request.
+ * <p>
+ * Entries are stored one file per UDN and remember the LOCATION they were
+ * fetched from. A cached description is used when the LOCATION matches and
+ * either:
+ * <ul>
+ * <li>the device's CONFIGID.UPNP.ORG matches (the description is unchanged by
+ * definition), or</li>
+ * <li>the entry is younger than the CACHE-CONTROL max-age it was stored with,
+ * and BOOTID.UPNP.ORG hasn't changed.</li>
+ * </ul>
+ */
+public class UPnPDescriptionCache {
+
+	private static String TAG = UPnPDescriptionCache.class.getName();
+
+	private final File mDirectory;
+
+	public UPnPDescriptionCache(File directory) {
+		mDirectory = directory;
+	}
+
+	/**
+	 * @return the cached description for {@code device} if it's still valid,
+	 * otherwise null
+	 */
+	public UPnPDescription get(UPnPDevice device) {
+		File file = getFile(device);
+		if (file == null || !file.exists()) {
+			return null;
+		}
+
+		Entry entry = read(file);
+		if (entry == null || !entry.mLocation.equals(device.getLocation().toExternalForm())) {
+			return null;
+		}
+
+		if (device.getConfigId() != null && device.getConfigId().equals(entry.mConfigId)) {
+			return entry.mDescription;
+		}
+		if (device.getBootId() != null && !device.getBootId().equals(entry.mBootId)) {
+			return null;
+		}
+		if (System.currentTimeMillis() < entry.mExpires) {
+			return entry.mDescription;
+		}
+		return null;
+	}
+
+	public void put(UPnPDevice device, UPnPDescription description) {
+		File file = getFile(device);
+		if (file == null) {
+			return;
+		}
+
+		Entry entry = new Entry();
+		entry.mLocation = device.getLocation().toExternalForm();
+		entry.mExpires = System.currentTimeMillis() + device.getMaxAge() * 1000L;
+		entry.mBootId = device.getBootId();
+		entry.mConfigId = device.getConfigId();
+		entry.mDescription = description;
+
+		write(file, entry);
+	}
+
+	public void clear() {
+		File[] files = mDirectory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+	}
+
+	////////////////////////////////////////////////////////////////////////////////
+	// Storage
+	////////////////////////////////////////////////////////////////////////////////
+
+	private static class Entry implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		String mLocation;
+		long mExpires;
+		String mBootId;
+		String mConfigId;
+		UPnPDescription mDescription;
+	}
+
+	private File getFile(UPnPDevice device) {
+		String udn = device.getUDN();
+		if (udn == null) {
+			return null;
+		}
+
+		// FNV-1a: stable across runs and safe as a file name
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < udn.length(); i++) {
+			hash ^= udn.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		return new File(mDirectory, Long.toHexString(hash));
+	}
+
+	private static Entry read(File file) {
+		ObjectInputStream in = null;
+		try {
+			in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
+			return (Entry) in.readObject();
+		}
+		catch (IOException | ClassNotFoundException | ClassCastException e) {
+			UPnPLog.w(TAG, "Discarding unreadable entry " + file + ": " + e);
+			file.delete();
+			return null;
+		}
+		finally {
+			closeQuietly(in);
+		}
+	}
+
+	private void write(File file, Entry entry) {
+		if (!mDirectory.exists() && !mDirectory.mkdirs()) {
+			return;
+		}
+
+		// Write to a temporary file and rename, so readers never see a partial entry
+		File tmp = new File(mDirectory, file.getName() + ".tmp" + Thread.currentThread().getId());
+		ObjectOutputStream out = null;
+		try {
+			out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			out.writeObject(entry);
+			out.close();
+			out = null;
+			if (!tmp.renameTo(file)) {
+				tmp.delete();
+			}
+		}
+		catch (IOException e) {
+			UPnPLog.w(TAG, "Unable to write " + file + ": " + e);
+			tmp.delete();
+		}
+		finally {
+			closeQuietly(out);
+		}
+	}
+
+	private static void closeQuietly(Closeable closeable) {
+		if (closeable != null) {
+			try {
+				closeable.close();
+			}
+			catch (IOException e) {
+				// Ignore
+			}
+		}
+	}
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright (C) 2015 Doug Melton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dgmltn.upnpbrowser;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.squareup.okhttp.Call;
+import com.squareup.okhttp.OkHttpClient;
+
+import rx.Observable;
+import rx.Scheduler;
+import rx.Subscriber;
+import rx.functions.Action0;
+import rx.functions.Action1;
+import rx.functions.Func1;
+import rx.observables.GroupedObservable;
+import rx.schedulers.Schedulers;
+import rx.subscriptions.Subscriptions;
+
+/**
+ * Downloads device descriptions for a stream of discovered devices, off the
+ * thread that reads the socket. At most {@code maxConcurrent} descriptions are
+ * fetched at once (the size of a dedicated thread pool), at most
+ * {@code maxPerHost} of those from the same host, and each device is emitted as
+ * soon as its own description arrives, fails, or times out.
+ * <p>
+ * Root and embedded devices advertise separately but share one LOCATION, so
+ * descriptions are shared per LOCATION (and BOOTID/CONFIGID): every device
+ * pointing at a document that is already being fetched, or was fetched
+ * recently, reuses that one result instead of downloading it again.
+ * <p>
+ * Usage: {@code finder.observe().compose(fetcher)}
+ */
+public class UPnPDescriptionFetcher implements Observable.Transformer<UPnPDevice, UPnPDevice> {
+
+	private static String TAG = UPnPDescriptionFetcher.class.getName();
+
+	public static final int DEFAULT_MAX_CONCURRENT = 8;
+	public static final int DEFAULT_MAX_PER_HOST = 2;
+	public static final long DEFAULT_TIMEOUT_MILLIS = 5000;
+
+	private static final int MAX_SHARED = 64;
+
+	public interface Listener {
+		/**
+		 * Called on a fetch thread as soon as {@code device} has its description,
+		 * before it is emitted. Should not block.
+		 */
+		public void onDescribed(UPnPDevice device);
+	}
+
+	private static class Shared {
+		final long mExpires;
+
+		// The load while it runs, then its result
+		Observable<UPnPDescription> mLoading;
+		volatile UPnPDescription mDescription;
+
+		Shared(long expires) {
+			mExpires = expires;
+		}
+	}
+
+	private final OkHttpClient mClient;
+	private final UPnPDescriptionCache mCache;
+	private final Listener mListener;
+	private final Scheduler mScheduler;
+	private final int mMaxPerHost;
+	private final long mTimeoutMillis;
+	private final AtomicInteger mInFlight = new AtomicInteger();
+
+	// Guarded by itself
+	private final LinkedHashMap<String, Shared> mShared = new LinkedHashMap<String, Shared>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Shared> eldest) {
+			return size() > MAX_SHARED;
+		}
+	};
+
+	/**
+	 * @param cache descriptions still valid in this cache are used without an
+	 * HTTP request, and fresh downloads are stored in it. May be null.
+	 */
+	public UPnPDescriptionFetcher(OkHttpClient client, UPnPDescriptionCache cache) {
+		this(client, cache, null);
+	}
+
+	/**
+	 * @param listener told about each device as soon as its description is
+	 * known, e.g. to prefetch its icon. May be null.
+	 */
+	public UPnPDescriptionFetcher(OkHttpClient client, UPnPDescriptionCache cache, Listener listener) {
+		this(client, cache, listener, DEFAULT_MAX_CONCURRENT, DEFAULT_MAX_PER_HOST, DEFAULT_TIMEOUT_MILLIS);
+	}
+
+	public UPnPDescriptionFetcher(OkHttpClient client, UPnPDescriptionCache cache, Listener listener, int maxConcurrent, int maxPerHost, long timeoutMillis) {
+		mClient = client;
+		mCache = cache;
+		mListener = listener;
+
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(
+			maxConcurrent, maxConcurrent, 30, TimeUnit.SECONDS,
+			new LinkedBlockingQueue<Runnable>(), new FetchThreadFactory());
+		executor.allowCoreThreadTimeOut(true);
+
+		mScheduler = Schedulers.from(executor);
+		mMaxPerHost = maxPerHost;
+		mTimeoutMillis = timeoutMillis;
+	}
+
+	@Override
+	public Observable<UPnPDevice> call(Observable<UPnPDevice> devices) {
+		return devices
+			.onBackpressureBuffer()
+			.groupBy(new Func1<UPnPDevice, String>() {
+				@Override
+				public String call(UPnPDevice device) {
+					return device.getHost();
+				}
+			})
+			.flatMap(new Func1<GroupedObservable<String, UPnPDevice>, Observable<UPnPDevice>>() {
+				@Override
+				public Observable<UPnPDevice> call(GroupedObservable<String, UPnPDevice> host) {
+					return host.flatMap(new Func1<UPnPDevice, Observable<UPnPDevice>>() {
+						@Override
+						public Observable<UPnPDevice> call(UPnPDevice device) {
+							return fetch(device);
+						}
+					}, mMaxPerHost);
+				}
+			});
+	}
+
+	/**
+	 * Emits {@code device} once its description has been loaded from the cache or
+	 * downloaded. Failures and timeouts are logged and the device is emitted
+	 * without a description. The timeout runs from when the download starts,
+	 * not from when it was queued.
+	 */
+	private Observable<UPnPDevice> fetch(final UPnPDevice device) {
+		return describe(device)
+			.map(new Func1<UPnPDescription, UPnPDevice>() {
+				@Override
+				public UPnPDevice call(UPnPDescription description) {
+					if (description != null) {
+						device.setDescription(description);
+						if (mListener != null) {
+							mListener.onDescribed(device);
+						}
+					}
+					return device;
+				}
+			});
+	}
+
+	/**
+	 * The description at {@code device}'s LOCATION, shared with every other
+	 * device that points at the same document. Emits null on failure. The
+	 * download is cancelled if every device waiting on it unsubscribes.
+	 */
+	private Observable<UPnPDescription> describe(final UPnPDevice device) {
+		final String key = device.getLocation() + "|" + device.getBootId() + "|" + device.getConfigId();
+		long now = System.currentTimeMillis();
+
+		synchronized (mShared) {
+			Shared shared = mShared.get(key);
+			if (shared != null && shared.mExpires > now) {
+				UPnPMetrics.count(UPnPMetrics.Counter.DESCRIPTIONS_SHARED);
+				UPnPDescription description = shared.mDescription;
+				// On a fetch thread, as the Listener is promised
+				return description != null ? Observable.just(description).subscribeOn(mScheduler) : shared.mLoading;
+			}
+
+			final Shared created = new Shared(now + device.getMaxAge() * 1000L);
+			created.mLoading = load(device)
+				.doOnNext(new Action1<UPnPDescription>() {
+					@Override
+					public void call(UPnPDescription description) {
+						created.mDescription = description;
+					}
+				})
+				.doOnUnsubscribe(new Action0() {
+					@Override
+					public void call() {
+						// Failed or cancelled: let the next device try again
+						if (created.mDescription == null) {
+							forget(key, created);
+						}
+					}
+				})
+				.replay(1)
+				.refCount();
+			mShared.put(key, created);
+			return created.mLoading;
+		}
+	}
+
+	private void forget(String key, Shared shared) {
+		synchronized (mShared) {
+			if (mShared.get(key) == shared) {
+				mShared.remove(key);
+			}
+		}
+	}
+
+	private Observable<UPnPDescription> load(final UPnPDevice device) {
+		return Observable.create(new Observable.OnSubscribe<UPnPDescription>() {
+			@Override
+			public void call(Subscriber<? super UPnPDescription> subscriber) {
+				// Cancelled when the last waiting device unsubscribes, or when the
+				// timeout runs out; the clock starts now that a thread is free
+				final Call call = mClient.newCall(device.newDescriptionRequest());
+				Action0 cancel = new Action0() {
+					@Override
+					public void call() {
+						call.cancel();
+					}
+				};
+				subscriber.add(Subscriptions.create(cancel));
+				Scheduler.Worker timer = Schedulers.computation().createWorker();
+				timer.schedule(cancel, mTimeoutMillis, TimeUnit.MILLISECONDS);
+
+				UPnPDescription description = null;
+				UPnPMetrics.set(UPnPMetrics.Gauge.DESCRIPTION_FETCHES_IN_FLIGHT, mInFlight.incrementAndGet());
+				try {
+					description = mCache == null ? null : mCache.get(device);
+					if (description != null) {
+						UPnPMetrics.count(UPnPMetrics.Counter.DESCRIPTION_CACHE_HITS);
+					}
+					else {
+						UPnPMetrics.count(UPnPMetrics.Counter.DESCRIPTION_CACHE_MISSES);
+						description = device.downloadSpecs(call);
+						if (mCache != null && description != null) {
+							mCache.put(device, description);
+						}
+					}
+				}
+				catch (Exception e) {
+					// Ignore errors
+					UPnPLog.w(TAG, "Error: " + e);
+				}
+				finally {
+					timer.unsubscribe();
+					UPnPMetrics.set(UPnPMetrics.Gauge.DESCRIPTION_FETCHES_IN_FLIGHT, mInFlight.decrementAndGet());
+				}
+				if (description == null) {
+					UPnPMetrics.count(UPnPMetrics.Counter.DESCRIPTION_FAILURES);
+				}
+				subscriber.onNext(description);
+				subscriber.onCompleted();
+			}
+		})
+			.subscribeOn(mScheduler);
+	}
+
+	private static class FetchThreadFactory implements ThreadFactory {
+		private final AtomicInteger mCount = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "upnp-fetch-" + mCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2015 Doug Melton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dgmltn.upnpbrowser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * Streaming (SAX) parser for UPnP device description documents. Reads straight
+ * from the response stream, never builds a DOM, and stops reading as soon as
+ * the root device element is closed.
+ */
+public final class UPnPDescriptionParser {
+
+	private static final SAXParserFactory FACTORY = UPnPXml.newParserFactory();
+
+	private static final ThreadLocal<SAXParser> PARSER = new ThreadLocal<SAXParser>() {
+		@Override
+		protected SAXParser initialValue() {
+			try {
+				synchronized (FACTORY) {
+					return FACTORY.newSAXParser();
+				}
+			}
+			catch (ParserConfigurationException | SAXException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	};
+
+	private UPnPDescriptionParser() {
+	}
+
+	public static UPnPDescription parse(InputStream in) throws IOException, SAXException {
+		Handler handler = new Handler();
+		SAXParser parser = PARSER.get();
+		try {
+			parser.parse(new InputSource(in), handler);
+		}
+		catch (Done done) {
+			// Root device is complete, the rest of the document is irrelevant
+		}
+		finally {
+			parser.reset();
+		}
+		return handler.mDescription;
+	}
+
+	/**
+	 * Thrown from the handler to end parsing early.
+	 */
+	private static class Done extends SAXException {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public synchronized Throwable fillInStackTrace() {
+			return this;
+		}
+	}
+
+	private static class Handler extends UPnPXml.Handler {
+		private final UPnPDescription mDescription = new UPnPDescription();
+		private final ArrayDeque<UPnPDescription.Device> mDevices = new ArrayDeque<>();
+		private final StringBuilder mText = new StringBuilder();
+		private UPnPDescription.Icon mIcon;
+		private UPnPDescription.Service mService;
+
+		@Override
+		public void startElement(String uri, String localName, String qName, Attributes attributes) {
+			String name = name(localName, qName);
+			mText.setLength(0);
+
+			switch (name) {
+			case "root":
+				mDescription.mConfigId = attributes.getValue("configId");
+				break;
+			case "device":
+				UPnPDescription.Device device = new UPnPDescription.Device();
+				if (mDevices.isEmpty()) {
+					mDescription.mDevice = device;
+				}
+				else {
+					mDevices.peek().mDevices.add(device);
+				}
+				mDevices.push(device);
+				break;
+			case "icon":
+				mIcon = new UPnPDescription.Icon();
+				break;
+			case "service":
+				mService = new UPnPDescription.Service();
+				break;
+			}
+		}
+
+		@Override
+		public void characters(char[] ch, int start, int length) {
+			mText.append(ch, start, length);
+		}
+
+		@Override
+		public void endElement(String uri, String localName, String qName) throws SAXException {
+			String name = name(localName, qName);
+			UPnPDescription.Device device = mDevices.peek();
+
+			if (name.equals("device")) {
+				mDevices.pop();
+				if (mDevices.isEmpty()) {
+					throw new Done();
+				}
+			}
+			else if (name.equals("icon")) {
+				if (device != null && mIcon != null) {
+					device.mIcons.add(mIcon);
+				}
+				mIcon = null;
+			}
+			else if (name.equals("service")) {
+				if (device != null && mService != null) {
+					device.mServices.add(mService);
+				}
+				mService = null;
+			}
+			else if (mIcon != null) {
+				setIconField(mIcon, name, text());
+			}
+			else if (mService != null) {
+				setServiceField(mService, name, text());
+			}
+			else if (device != null) {
+				setDeviceField(device, name, text());
+			}
+			else if (name.equals("URLBase")) {
+				mDescription.mURLBase = text();
+			}
+		}
+
+		private String text() {
+			return mText.toString().trim();
+		}
+
+		private static String name(String localName, String qName) {
+			if (localName != null && localName.length() > 0) {
+				return localName;
+			}
+			int colon = qName.indexOf(':');
+			return colon == -1 ? qName : qName.substring(colon + 1);
+		}
+
+		private static void setDeviceField(UPnPDescription.Device device, String name, String value) {
+			switch (name) {
+			case "deviceType":
+				device.mDeviceType = value;
+				break;
+			case "friendlyName":
+				device.mFriendlyName = value;
+				break;
+			case "manufacturer":
+				device.mManufacturer = value;
+				break;
+			case "manufacturerURL":
+				device.mManufacturerURL = value;
+				break;
+			case "modelDescription":
+				device.mModelDescription = value;
+				break;
+			case "modelName":
+				device.mModelName = value;
+				break;
+			case "modelNumber":
+				device.mModelNumber = value;
+				break;
+			case "modelURL":
+				device.mModelURL = value;
+				break;
+			case "serialNumber":
+				device.mSerialNumber = value;
+				break;
+			case "UDN":
+				device.mUDN = value;
+				break;
+			case "presentationURL":
+				device.mPresentationURL = value;
+				break;
+			}
+		}
+
+		private static void setIconField(UPnPDescription.Icon icon, String name, String value) {
+			switch (name) {
+			case "mimetype":
+				icon.mMimeType = value;
+				break;
+			case "width":
+				icon.mWidth = parseInt(value);
+				break;
+			case "height":
+				icon.mHeight = parseInt(value);
+				break;
+			case "depth":
+				icon.mDepth = parseInt(value);
+				break;
+			case "url":
+				icon.mUrl = value;
+				break;
+			}
+		}
+
+		private static void setServiceField(UPnPDescription.Service service, String name, String value) {
+			switch (name) {
+			case "serviceType":
+				service.mServiceType = value;
+				break;
+			case "serviceId":
+				service.mServiceId = value;
+				break;
+			case "SCPDURL":
+				service.mSCPDURL = value;
+				break;
+			case "controlURL":
+				service.mControlURL = value;
+				break;
+			case "eventSubURL":
+				service.mEventSubURL = value;
+				break;
+			}
+		}
+
+		private static int parseInt(String value) {
+			try {
+				return Integer.parseInt(value);
+			}
+			catch (NumberFormatException e) {
+				return 0;
+			}
+		}
+	}
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2015 Doug Melton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dgmltn.upnpbrowser;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded, least-recently-used home for the bulky parts of a device that the
+ * device list never looks at: the raw SSDP datagram and the parsed
+ * description. UPnPDevice only keeps the handful of fields it displays and
+ * looks the rest up here on demand. Anything evicted can be derived again (see
+ * {@link UPnPDevice#getRawUPnP()} and {@link UPnPDevice#loadDescription}).
+ */
+public class UPnPDetailStore {
+
+	public static final int DEFAULT_MAX_RAW_BYTES = 256 * 1024;
+	public static final int DEFAULT_MAX_DESCRIPTIONS = 64;
+
+	private static final UPnPDetailStore sInstance = new UPnPDetailStore(DEFAULT_MAX_RAW_BYTES, DEFAULT_MAX_DESCRIPTIONS);
+
+	public static UPnPDetailStore getInstance() {
+		return sInstance;
+	}
+
+	private final int mMaxRawBytes;
+	private int mRawBytes;
+
+	// Guarded by this
+	private final LinkedHashMap<String, byte[]> mRaw = new LinkedHashMap<>(16, 0.75f, true);
+
+	// Guarded by this
+	private final LinkedHashMap<String, UPnPDescription> mDescriptions;
+
+	public UPnPDetailStore(int maxRawBytes, final int maxDescriptions) {
+		mMaxRawBytes = maxRawBytes;
+		mDescriptions = new LinkedHashMap<String, UPnPDescription>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, UPnPDescription> eldest) {
+				return size() > maxDescriptions;
+			}
+		};
+	}
+
+	public synchronized void putRaw(String key, byte[] raw) {
+		byte[] previous = mRaw.put(key, raw);
+		if (previous != null) {
+			mRawBytes -= previous.length;
+		}
+		mRawBytes += raw.length;
+
+		while (mRawBytes > mMaxRawBytes && !mRaw.isEmpty()) {
+			Map.Entry<String, byte[]> eldest = mRaw.entrySet().iterator().next();
+			mRawBytes -= eldest.getValue().length;
+			mRaw.remove(eldest.getKey());
+		}
+	}
+
+	public synchronized byte[] getRaw(String key) {
+		return mRaw.get(key);
+	}
+
+	/**
+	 * @param location the LOCATION the description was fetched from
+	 */
+	public synchronized void putDescription(String location, UPnPDescription description) {
+		mDescriptions.put(location, description);
+	}
+
+	public synchronized UPnPDescription getDescription(String location) {
+		return mDescriptions.get(location);
+	}
+
+	public synchronized void clear() {
+		mRaw.clear();
+		mRawBytes = 0;
+		mDescriptions.clear();
+	}
+}
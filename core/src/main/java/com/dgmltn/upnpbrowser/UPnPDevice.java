@@ -0,0 +1,575 @@
+/*
+ * Copyright (C) 2015 Doug Melton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dgmltn.upnpbrowser;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.xml.sax.SAXParseException;
+
+import com.squareup.okhttp.Call;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+
+import okio.Buffer;
+import okio.ForwardingSource;
+import okio.Okio;
+import okio.Source;
+
+public class UPnPDevice {
+
+	private static String TAG = UPnPDevice.class.getName();
+
+	// UDA recommends at least 1800 seconds
+	public static final int DEFAULT_MAX_AGE = 1800;
+
+	// Only what the device list needs is kept here. The raw datagram and the
+	// parsed description live in the bounded UPnPDetailStore.
+	private URL mLocation;
+	private String mServer;
+	private String mUSN;
+	private String mST;
+	private int mMaxAge;
+	private String mBootId;
+	private String mConfigId;
+
+	private String mFriendlyName;
+	private String mDeviceType;
+	private String mRootUDN;
+	private String mCachedIconUrl;
+
+	// Sort key, see UPnPDeviceComparator
+	private int mAddressFamily;
+	private long mAddressHigh;
+	private long mAddressLow;
+
+	private UPnPDevice() {
+	}
+
+	public String getHost() {
+		return mLocation.getHost();
+	}
+
+	/**
+	 * The LOCATION address, if the LOCATION gives one rather than a host name.
+	 * Never looks a name up.
+	 */
+	public InetAddress getInetAddress() throws UnknownHostException {
+		InetAddress address = parseAddressLiteral(getHost());
+		if (address == null) {
+			throw new UnknownHostException("Not an address: " + getHost());
+		}
+		return address;
+	}
+
+	public URL getLocation() {
+		return mLocation;
+	}
+
+	/**
+	 * The SSDP message this device was created from. If it has been evicted from
+	 * the {@link UPnPDetailStore}, an equivalent response is rebuilt from the
+	 * headers the device keeps.
+	 */
+	public String getRawUPnP() {
+		byte[] raw = UPnPDetailStore.getInstance().getRaw(getStoreKey());
+		if (raw != null) {
+			SSDPMessage message = new SSDPMessage();
+			message.parse(ByteBuffer.wrap(raw));
+			return message.toString();
+		}
+
+		StringBuilder sb = new StringBuilder("HTTP/1.1 200 OK\r\n");
+		sb.append("CACHE-CONTROL: max-age=").append(mMaxAge).append("\r\n");
+		sb.append("LOCATION: ").append(mLocation).append("\r\n");
+		appendHeader(sb, "SERVER", mServer);
+		appendHeader(sb, "ST", mST);
+		appendHeader(sb, "USN", mUSN);
+		appendHeader(sb, "BOOTID.UPNP.ORG", mBootId);
+		appendHeader(sb, "CONFIGID.UPNP.ORG", mConfigId);
+		return sb.append("\r\n").toString();
+	}
+
+	private static void appendHeader(StringBuilder sb, String name, String value) {
+		if (value != null) {
+			sb.append(name).append(": ").append(value).append("\r\n");
+		}
+	}
+
+	/**
+	 * The parsed device description, or null if it hasn't been downloaded or has
+	 * since been evicted from the {@link UPnPDetailStore}. Detail views should
+	 * use {@link #loadDescription} instead.
+	 */
+	public UPnPDescription getDescription() {
+		return UPnPDetailStore.getInstance().getDescription(mLocation.toString());
+	}
+
+	/**
+	 * The UPnP device type from the description, e.g.
+	 * "urn:schemas-upnp-org:device:MediaRenderer:1", or null if unknown.
+	 */
+	public String getDeviceType() {
+		return mDeviceType;
+	}
+
+	/**
+	 * True if this is an embedded device, rather than the root device of its
+	 * description. Only known once the description has been applied.
+	 */
+	public boolean isEmbedded() {
+		return mRootUDN != null;
+	}
+
+	/**
+	 * The UDN of the root device this one is embedded in, or null for a root
+	 * device.
+	 */
+	public String getRootUDN() {
+		return mRootUDN;
+	}
+
+	public String getServer() {
+		return mServer;
+	}
+
+	public String getUSN() {
+		return mUSN;
+	}
+
+	/**
+	 * The unique device name: the "uuid:..." part of the USN, or null if the
+	 * USN is missing.
+	 */
+	public String getUDN() {
+		return parseUDN(mUSN);
+	}
+
+	/**
+	 * "uuid:device-UUID::upnp:rootdevice" => "uuid:device-UUID"
+	 */
+	public static String parseUDN(String usn) {
+		if (usn == null) {
+			return null;
+		}
+		int separator = usn.indexOf("::");
+		return separator == -1 ? usn : usn.substring(0, separator);
+	}
+
+	/**
+	 * How long this advertisement is valid for, in seconds, from CACHE-CONTROL.
+	 */
+	public int getMaxAge() {
+		return mMaxAge;
+	}
+
+	/**
+	 * BOOTID.UPNP.ORG (UDA 1.1), or null if the device didn't send one.
+	 */
+	public String getBootId() {
+		return mBootId;
+	}
+
+	/**
+	 * CONFIGID.UPNP.ORG (UDA 1.1), or null if the device didn't send one.
+	 */
+	public String getConfigId() {
+		return mConfigId;
+	}
+
+	/**
+	 * The search target (ST) of an M-SEARCH response, or the notification type
+	 * (NT) of an advertisement.
+	 */
+	public String getST() {
+		return mST;
+	}
+
+	public String getIconUrl() {
+		return mCachedIconUrl;
+	}
+
+	private String generateIconUrl(String path) {
+		if (path == null || path.length() == 0) {
+			return null;
+		}
+		if (path.startsWith("/")) {
+			path = path.substring(1);
+		}
+		return mLocation.getProtocol() + "://" + mLocation.getHost() + ":" + mLocation.getPort() + "/" + path;
+	}
+
+	public String getFriendlyName() {
+		return mFriendlyName;
+	}
+
+	public String getScrubbedFriendlyName() {
+		String friendlyName = mFriendlyName;
+
+		// Special case for SONOS: remove the leading ip address from the friendly name
+		// "192.168.1.123 - Sonos PLAY:1" => "Sonos PLAY:1"
+		if (friendlyName != null && friendlyName.startsWith(getHost() + " - ")) {
+			friendlyName = friendlyName.substring(getHost().length() + 3);
+		}
+
+		return friendlyName;
+	}
+
+	////////////////////////////////////////////////////////////////////////////////
+	// UPnP Response Parsing
+	////////////////////////////////////////////////////////////////////////////////
+
+	public static UPnPDevice getInstance(String raw) {
+		SSDPMessage message = new SSDPMessage();
+		message.parse(ByteBuffer.wrap(raw.getBytes()));
+		return getInstance(message);
+	}
+
+	/**
+	 * Creates a device from a parsed SSDP response or advertisement. Only the
+	 * headers the device keeps are decoded; the message may be reused as soon as
+	 * this returns.
+	 */
+	public static UPnPDevice getInstance(SSDPMessage message) {
+		String location = message.get(SSDPMessage.Header.LOCATION);
+		if (location == null) {
+			return null;
+		}
+		try {
+			UPnPDevice device = new UPnPDevice();
+			device.mLocation = new URL(location);
+			InetAddress address = parseAddressLiteral(device.getHost());
+			if (address != null) {
+				device.setSortAddress(address);
+			}
+			device.mServer = message.get(SSDPMessage.Header.SERVER);
+			device.mUSN = message.get(SSDPMessage.Header.USN);
+			device.mST = message.get(message.has(SSDPMessage.Header.ST) ? SSDPMessage.Header.ST : SSDPMessage.Header.NT);
+			device.mMaxAge = message.getMaxAge(DEFAULT_MAX_AGE);
+			device.mBootId = message.get(SSDPMessage.Header.BOOTID);
+			device.mConfigId = message.get(SSDPMessage.Header.CONFIGID);
+			UPnPDetailStore.getInstance().putRaw(device.getStoreKey(), message.toByteArray());
+			return device;
+		}
+		catch (MalformedURLException e) {
+			UPnPLog.w(TAG, "Ignoring response with bad LOCATION " + location, e);
+			return null;
+		}
+	}
+
+	////////////////////////////////////////////////////////////////////////////////
+	// Sort key
+	////////////////////////////////////////////////////////////////////////////////
+
+	public static final int ADDRESS_UNRESOLVED = 0;
+	public static final int ADDRESS_IPV4 = 4;
+	public static final int ADDRESS_IPV6 = 6;
+
+	/**
+	 * {@link #ADDRESS_IPV4} or {@link #ADDRESS_IPV6} if the LOCATION host is an
+	 * address literal, otherwise {@link #ADDRESS_UNRESOLVED}. Host names are
+	 * never looked up, so they sort first.
+	 */
+	public int getAddressFamily() {
+		return mAddressFamily;
+	}
+
+	/**
+	 * The high 64 bits of the LOCATION address (always 0 for IPv4).
+	 */
+	public long getAddressHigh() {
+		return mAddressHigh;
+	}
+
+	/**
+	 * The low 64 bits of the LOCATION address.
+	 */
+	public long getAddressLow() {
+		return mAddressLow;
+	}
+
+	public int getPort() {
+		return mLocation.getPort();
+	}
+
+	private void setSortAddress(InetAddress address) {
+		byte[] bytes = address.getAddress();
+		long high = 0;
+		long low = 0;
+		for (int i = 0; i < bytes.length; i++) {
+			if (i < bytes.length - 8) {
+				high = (high << 8) | (bytes[i] & 0xff);
+			}
+			else {
+				low = (low << 8) | (bytes[i] & 0xff);
+			}
+		}
+		mAddressHigh = high;
+		mAddressLow = low;
+		mAddressFamily = bytes.length == 4 ? ADDRESS_IPV4 : ADDRESS_IPV6;
+	}
+
+	/**
+	 * Parses a LOCATION host that is a dotted quad or an IPv6 literal, with or
+	 * without brackets and a zone ID (e.g. "[fe80::1%eth0]", whose zone may
+	 * name an interface this host doesn't have). Returns null for anything
+	 * else, without ever falling back to DNS.
+	 */
+	static InetAddress parseAddressLiteral(String host) {
+		if (host.startsWith("[") && host.endsWith("]")) {
+			host = host.substring(1, host.length() - 1);
+		}
+		int zone = host.indexOf('%');
+		if (zone != -1) {
+			host = host.substring(0, zone);
+		}
+		try {
+			if (isIPv4Literal(host)) {
+				return InetAddress.getByName(host);
+			}
+			if (host.indexOf(':') != -1 && isIPv6Chars(host)) {
+				// Brackets make getByName fail rather than look up a bad literal
+				return InetAddress.getByName("[" + host + "]");
+			}
+		}
+		catch (UnknownHostException e) {
+			// Not a valid literal after all
+		}
+		return null;
+	}
+
+	private static boolean isIPv4Literal(String host) {
+		int octets = 0;
+		int value = -1;
+		for (int i = 0; i <= host.length(); i++) {
+			char c = i < host.length() ? host.charAt(i) : '.';
+			if (c == '.') {
+				if (value == -1 || ++octets > 4) {
+					return false;
+				}
+				value = -1;
+			}
+			else if (c >= '0' && c <= '9') {
+				value = (value == -1 ? 0 : value * 10) + (c - '0');
+				if (value > 255) {
+					return false;
+				}
+			}
+			else {
+				return false;
+			}
+		}
+		return octets == 4;
+	}
+
+	private static boolean isIPv6Chars(String host) {
+		for (int i = 0; i < host.length(); i++) {
+			char c = host.charAt(i);
+			if (Character.digit(c, 16) == -1 && c != ':' && c != '.') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	////////////////////////////////////////////////////////////////////////////////
+	// UPnP Specification Downloading / Parsing
+	////////////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Downloads, parses and applies the device description.
+	 *
+	 * @return the description, or null if the document couldn't be parsed
+	 */
+	public UPnPDescription downloadSpecs(OkHttpClient client) throws Exception {
+		return downloadSpecs(client.newCall(newDescriptionRequest()));
+	}
+
+	/**
+	 * Like {@link #downloadSpecs(OkHttpClient)}, with a call made from
+	 * {@link #newDescriptionRequest} that the caller may cancel at any time,
+	 * even before this starts.
+	 */
+	public UPnPDescription downloadSpecs(Call call) throws Exception {
+		long start = System.currentTimeMillis();
+		Response response = call.execute();
+		CountingSource body = new CountingSource(response.body().source());
+		UPnPDescription description;
+		try {
+			if (!response.isSuccessful()) {
+				throw new IOException("Unexpected code " + response);
+			}
+			description = UPnPDescriptionParser.parse(Okio.buffer(body).inputStream());
+		}
+		catch (SAXParseException e) {
+			return null;
+		}
+		finally {
+			response.body().close();
+		}
+
+		UPnPMetrics.record(UPnPMetrics.Histogram.DESCRIPTION_FETCH_MILLIS, System.currentTimeMillis() - start);
+		UPnPMetrics.record(UPnPMetrics.Histogram.DESCRIPTION_BYTES, body.mCount);
+		setDescription(description);
+		return description;
+	}
+
+	public Request newDescriptionRequest() {
+		return new Request.Builder()
+			.url(mLocation)
+			.build();
+	}
+
+	/**
+	 * Returns the description from the {@link UPnPDetailStore}, downloading it
+	 * again (usually from the HTTP cache) if it was evicted. Blocks; never call
+	 * this from the main thread.
+	 */
+	public UPnPDescription loadDescription(OkHttpClient client) throws Exception {
+		UPnPDescription description = getDescription();
+		return description != null ? description : downloadSpecs(client);
+	}
+
+	/**
+	 * Downloads the description document as text, for detail views that want
+	 * to show it. Nothing is kept. Blocks; never call this from the main thread.
+	 */
+	public String fetchRawXml(OkHttpClient client) throws IOException {
+		Response response = client.newCall(newDescriptionRequest()).execute();
+		try {
+			if (!response.isSuccessful()) {
+				throw new IOException("Unexpected code " + response);
+			}
+			return response.body().string();
+		}
+		finally {
+			response.body().close();
+		}
+	}
+
+	/**
+	 * Applies a description that was downloaded (or loaded from a cache) for this
+	 * device. Root and embedded devices share one description, so the fields
+	 * are taken from the node whose UDN matches this device. Only the fields the
+	 * list shows are copied out; the description itself goes into the
+	 * {@link UPnPDetailStore}.
+	 */
+	public void setDescription(UPnPDescription description) {
+		UPnPDetailStore.getInstance().putDescription(mLocation.toString(), description);
+		UPnPDescription.Device root = description.getDevice();
+		if (root == null) {
+			return;
+		}
+
+		UPnPDescription.Device device = findDevice(root, getUDN());
+		if (device == null || device == root) {
+			device = root;
+			mRootUDN = null;
+		}
+		else {
+			mRootUDN = root.getUDN();
+		}
+
+		UPnPDescription.Icon icon = UPnPIconSelector.select(device);
+		mCachedIconUrl = icon == null ? null : generateIconUrl(icon.getUrl());
+		mFriendlyName = device.getFriendlyName();
+		mDeviceType = device.getDeviceType();
+	}
+
+	/**
+	 * Devices for every embedded device in this root device's description, so
+	 * they can be listed under it without waiting for (or relying on) their own
+	 * advertisements. Empty for embedded devices or if the description isn't
+	 * available.
+	 */
+	public List<UPnPDevice> getEmbeddedDevices() {
+		UPnPDescription description = getDescription();
+		if (isEmbedded() || description == null || description.getDevice() == null) {
+			return Collections.emptyList();
+		}
+		List<UPnPDevice> devices = new ArrayList<>();
+		addEmbeddedDevices(description, description.getDevice(), devices);
+		return devices;
+	}
+
+	private void addEmbeddedDevices(UPnPDescription description, UPnPDescription.Device parent, List<UPnPDevice> devices) {
+		for (UPnPDescription.Device node : parent.getDevices()) {
+			if (node.getUDN() != null && node.getUDN().length() > 0) {
+				UPnPDevice device = new UPnPDevice();
+				device.mLocation = mLocation;
+				device.mServer = mServer;
+				device.mUSN = node.getDeviceType() == null ? node.getUDN() : node.getUDN() + "::" + node.getDeviceType();
+				device.mST = node.getDeviceType();
+				device.mMaxAge = mMaxAge;
+				device.mBootId = mBootId;
+				device.mConfigId = mConfigId;
+				device.mAddressFamily = mAddressFamily;
+				device.mAddressHigh = mAddressHigh;
+				device.mAddressLow = mAddressLow;
+				device.setDescription(description);
+				devices.add(device);
+			}
+			addEmbeddedDevices(description, node, devices);
+		}
+	}
+
+	private static UPnPDescription.Device findDevice(UPnPDescription.Device device, String udn) {
+		if (udn == null || udn.equalsIgnoreCase(device.getUDN())) {
+			return device;
+		}
+		for (UPnPDescription.Device embedded : device.getDevices()) {
+			UPnPDescription.Device found = findDevice(embedded, udn);
+			if (found != null) {
+				return found;
+			}
+		}
+		return null;
+	}
+
+	private String getStoreKey() {
+		return mUSN != null ? mUSN : mLocation.toString();
+	}
+
+	/**
+	 * Counts the bytes of a response body as the parser reads them, since
+	 * chunked responses have no Content-Length.
+	 */
+	private static class CountingSource extends ForwardingSource {
+		long mCount;
+
+		CountingSource(Source delegate) {
+			super(delegate);
+		}
+
+		@Override
+		public long read(Buffer sink, long byteCount) throws IOException {
+			long read = super.read(sink, byteCount);
+			if (read > 0) {
+				mCount += read;
+			}
+			return read;
+		}
+	}
+}
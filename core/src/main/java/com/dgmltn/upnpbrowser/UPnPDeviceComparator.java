@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2015 Doug Melton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dgmltn.upnpbrowser;
+
+import java.util.Comparator;
+
+/**
+ * Orders devices by LOCATION address (IPv4 before IPv6, unresolved host names
+ * first), then port, then path. Devices sharing a LOCATION (a root device and
+ * its embedded devices) are kept together, root first, then ordered by UDN.
+ * <p>
+ * Uses only the sort key each UPnPDevice computes once when it's created, so
+ * comparing is pure arithmetic and never touches DNS.
+ */
+public class UPnPDeviceComparator implements Comparator<UPnPDevice> {
+	@Override
+	public int compare(UPnPDevice lhs, UPnPDevice rhs) {
+		// Handle null objects
+		int compare = compareNull(lhs, rhs);
+		if (compare != 0 || lhs == null) {
+			return compare;
+		}
+		return compare(lhs, lhs.isEmbedded(), rhs, rhs.isEmbedded());
+	}
+
+	/**
+	 * Compares two non-null devices as if their {@link UPnPDevice#isEmbedded()}
+	 * were {@code lhsEmbedded} and {@code rhsEmbedded}, for callers that sort
+	 * snapshots of devices whose descriptions may still arrive.
+	 */
+	public int compare(UPnPDevice lhs, boolean lhsEmbedded, UPnPDevice rhs, boolean rhsEmbedded) {
+		// Compare ip addresses
+		int compare = compareInt(lhs.getAddressFamily(), rhs.getAddressFamily());
+		if (compare != 0) {
+			return compare;
+		}
+		compare = compareUnsigned(lhs.getAddressHigh(), rhs.getAddressHigh());
+		if (compare != 0) {
+			return compare;
+		}
+		compare = compareUnsigned(lhs.getAddressLow(), rhs.getAddressLow());
+		if (compare != 0) {
+			return compare;
+		}
+
+		// Compare ports
+		compare = compareInt(lhs.getPort(), rhs.getPort());
+		if (compare != 0) {
+			return compare;
+		}
+
+		// String compare paths
+		compare = lhs.getLocation().getPath().compareTo(rhs.getLocation().getPath());
+		if (compare != 0) {
+			return compare;
+		}
+
+		// Root device before its embedded devices
+		compare = compareBoolean(lhsEmbedded, rhsEmbedded);
+		if (compare != 0) {
+			return compare;
+		}
+
+		String lhsUDN = lhs.getUDN();
+		String rhsUDN = rhs.getUDN();
+		compare = compareNull(lhsUDN, rhsUDN);
+		if (compare != 0 || lhsUDN == null) {
+			return compare;
+		}
+		return lhsUDN.compareTo(rhsUDN);
+	}
+
+	///////////////////////////////////////////////////////////////////////////
+	// Null
+	// a "null" object is less than a populated one
+	// If they're both null or both non-null, then they're equal
+	///////////////////////////////////////////////////////////////////////////
+
+	public int compareNull(Object lhs, Object rhs) {
+		if (lhs == null) {
+			return rhs == null ? 0 : -1;
+		}
+		else if (rhs == null) {
+			return 1;
+		}
+		return 0;
+	}
+
+	///////////////////////////////////////////////////////////////////////////
+	// Primitives
+	///////////////////////////////////////////////////////////////////////////
+
+	private static int compareInt(int lhs, int rhs) {
+		return lhs < rhs ? -1 : lhs == rhs ? 0 : 1;
+	}
+
+	private static int compareBoolean(boolean lhs, boolean rhs) {
+		return lhs == rhs ? 0 : lhs ? 1 : -1;
+	}
+
+	private static int compareUnsigned(long lhs, long rhs) {
+		// Flip the sign bit so signed comparison gives unsigned order
+		lhs += Long.MIN_VALUE;
+		rhs += Long.MIN_VALUE;
+		return lhs < rhs ? -1 : lhs == rhs ? 0 : 1;
+	}
+}
@@ -0,0 +1,601 @@
+/*
+ * Copyright (C) 2015 Doug Melton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dgmltn.upnpbrowser;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import rx.Observable;
+import rx.Subscriber;
+import rx.functions.Action0;
+import rx.subscriptions.Subscriptions;
+
+/**
+ * Based on:
+ * https://github.com/heb-dtc/SSDPDiscovery/blob/master/src/main/java/com/flo/upnpdevicedetector/UPnPDeviceFinder.java
+ */
+public class UPnPDeviceFinder {
+
+	private static String TAG = UPnPDeviceFinder.class.getName();
+
+	public static final String MULTICAST_ADDRESS = "239.255.255.250";
+	public static final String MULTICAST_ADDRESS_V6_LINK_LOCAL = "FF02::C";
+	public static final String MULTICAST_ADDRESS_V6_SITE_LOCAL = "FF05::C";
+
+	public static final int PORT = 1900;
+
+	private final List<Binding> mBindings;
+
+	/**
+	 * Searches every eligible interface over both IPv4 and IPv6.
+	 */
+	public UPnPDeviceFinder() {
+		this(true, true);
+	}
+
+	/**
+	 * Searches every eligible interface over IPv4 only, or IPv6 only.
+	 */
+	public UPnPDeviceFinder(boolean IPV4) {
+		this(IPV4, !IPV4);
+	}
+
+	public UPnPDeviceFinder(boolean ipv4, boolean ipv6) {
+		this(findBindings(ipv4, ipv6));
+	}
+
+	/**
+	 * Searches only from {@code localAddress}, on {@code group}, which may be a
+	 * non-standard multicast group and port or even a unicast address. Loopback
+	 * addresses are allowed, e.g. to search a simulator on 127.0.0.1.
+	 */
+	public UPnPDeviceFinder(InetAddress localAddress, InetSocketAddress group) {
+		this(findBinding(localAddress, group));
+	}
+
+	private UPnPDeviceFinder(List<Binding> bindings) {
+		mBindings = bindings;
+		if (UPnPLog.isLoggable(UPnPLog.DEBUG)) {
+			for (Binding binding : mBindings) {
+				UPnPLog.d(TAG, "searching from " + binding.mAddress + " on " + binding.mInterface.getName());
+			}
+		}
+	}
+
+	/**
+	 * Searches with {@link UPnPSearchStrategy#getDefault()}.
+	 */
+	public Observable<UPnPDevice> observe() {
+		return observe(UPnPSearchStrategy.getDefault());
+	}
+
+	/**
+	 * Sends SSDP M-SEARCH bursts from every local address, as described by
+	 * {@code strategy}, and emits a UPnPDevice for every new response. All
+	 * interfaces are searched at once, on one thread. Completes when the
+	 * strategy decides the scan is over; unsubscribing ends it immediately.
+	 * Errors if no local address can search, or the scan itself fails.
+	 */
+	public Observable<UPnPDevice> observe(final UPnPSearchStrategy strategy) {
+		return Observable.create(new Observable.OnSubscribe<UPnPDevice>() {
+			@Override
+			public void call(final Subscriber<? super UPnPDevice> subscriber) {
+				if (mBindings.isEmpty()) {
+					subscriber.onError(new Exception("no local address"));
+					return;
+				}
+
+				final SSDPEngine engine;
+				try {
+					engine = new SSDPEngine();
+				}
+				catch (IOException e) {
+					subscriber.onError(e);
+					return;
+				}
+
+				subscriber.add(Subscriptions.create(new Action0() {
+					@Override
+					public void call() {
+						engine.stop();
+					}
+				}));
+
+				try {
+					Scan scan = new Scan(engine, strategy, subscriber);
+					for (Binding binding : mBindings) {
+						try {
+							scan.add(engine.open(binding.mAddress, binding.mInterface, binding.mGroup), binding.mGroup);
+						}
+						catch (IOException e) {
+							UPnPLog.e(TAG, "unable to search from " + binding.mAddress + ": " + e);
+						}
+					}
+					if (engine.getChannelCount() == 0) {
+						throw new IOException("no usable local address");
+					}
+
+					// Send bursts and listen to responses until the scan is over or unsubscribe
+					engine.run(scan, scan);
+				}
+				catch (IOException e) {
+					UPnPLog.e(TAG, "scan failed: " + e);
+					if (!subscriber.isUnsubscribed()) {
+						subscriber.onError(e);
+					}
+					return;
+				}
+				finally {
+					engine.close();
+				}
+
+				if (!subscriber.isUnsubscribed()) {
+					UPnPLog.d(TAG, "scan complete");
+					subscriber.onCompleted();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Prepares a scan for every target in {@code strategy}, sent together in
+	 * each burst, with replies routed to one stream per target.
+	 */
+	public UPnPSearch search(UPnPSearchStrategy strategy) {
+		return new UPnPSearch(observe(strategy));
+	}
+
+	/**
+	 * A single search: sends the bursts, turns responses into devices, counts
+	 * replies per interval and decides when it's over. Runs entirely on the
+	 * engine thread.
+	 */
+	private class Scan implements SSDPEngine.Timer, SSDPEngine.Listener {
+		private final SSDPEngine mEngine;
+		private final UPnPSearchStrategy mStrategy;
+		private final Subscriber<? super UPnPDevice> mSubscriber;
+		private final SSDPMessage mMessage = new SSDPMessage();
+
+		// Every USN and LOCATION pair emitted by this scan
+		private final HashSet<Sighting> mSeen = new HashSet<>();
+
+		private final List<DatagramChannel> mChannels = new ArrayList<>();
+		private final List<byte[][]> mSearches = new ArrayList<>();
+
+		private int mBurstsSent;
+		private long mStarted;
+		private long mNextBurst;
+		private long mLastActivity;
+		private int mReplies;
+		private int mTotalReplies;
+		private long mFirstReply;
+		private long mLastReply;
+
+		Scan(SSDPEngine engine, UPnPSearchStrategy strategy, Subscriber<? super UPnPDevice> subscriber) {
+			mEngine = engine;
+			mStrategy = strategy;
+			mSubscriber = subscriber;
+		}
+
+		void add(DatagramChannel channel, InetSocketAddress group) {
+			List<String> targets = mStrategy.getTargets();
+			byte[][] searches = new byte[targets.size()][];
+			for (int i = 0; i < searches.length; i++) {
+				searches[i] = buildSSDPSearchString(group, targets.get(i), mStrategy.getMX()).getBytes();
+			}
+			mChannels.add(channel);
+			mSearches.add(searches);
+		}
+
+		@Override
+		public long onTimer(long now) {
+			if (mBurstsSent < mStrategy.getBursts() && now >= mNextBurst) {
+				if (mBurstsSent == 0) {
+					mStarted = now;
+				}
+				else {
+					endInterval();
+				}
+				for (int i = 0; i < mChannels.size(); i++) {
+					for (byte[] search : mSearches.get(i)) {
+						if (mEngine.send(mChannels.get(i), search)) {
+							UPnPMetrics.count(UPnPMetrics.Counter.SEARCHES_SENT);
+						}
+					}
+				}
+				mBurstsSent++;
+				mNextBurst = now + mStrategy.getBurstInterval();
+				mLastActivity = now;
+			}
+
+			if (mBurstsSent < mStrategy.getBursts()) {
+				return mNextBurst - now;
+			}
+
+			// All bursts are out: wait for replies to stop, or the deadline
+			long end = Math.min(mLastActivity + mStrategy.getQuietPeriod(), mStarted + mStrategy.getMaxDuration());
+			if (now >= end) {
+				endInterval();
+				report(now);
+				return -1;
+			}
+			return end - now;
+		}
+
+		private void endInterval() {
+			if (mStrategy.getListener() != null) {
+				mStrategy.getListener().onInterval(mBurstsSent - 1, mReplies);
+			}
+			mReplies = 0;
+		}
+
+		@Override
+		public void onDatagram(ByteBuffer buffer, SocketAddress source) {
+			UPnPMetrics.count(UPnPMetrics.Counter.PACKETS_RECEIVED);
+			if (!mMessage.parse(buffer)) {
+				UPnPMetrics.count(UPnPMetrics.Counter.PARSE_FAILURES);
+				return;
+			}
+			mReplies++;
+			mTotalReplies++;
+			mLastActivity = System.currentTimeMillis();
+			if (mFirstReply == 0) {
+				mFirstReply = mLastActivity;
+			}
+			mLastReply = mLastActivity;
+
+			if (UPnPLog.isLoggable(UPnPLog.VERBOSE)) {
+				UPnPLog.v(TAG, "reply from " + source + ": " + mMessage);
+			}
+			if (isDuplicate(mSeen, mMessage)) {
+				UPnPMetrics.count(UPnPMetrics.Counter.DUPLICATES_SUPPRESSED);
+				return;
+			}
+			UPnPDevice device = UPnPDevice.getInstance(mMessage);
+			if (device != null) {
+				mSubscriber.onNext(device);
+			}
+			else {
+				UPnPMetrics.count(UPnPMetrics.Counter.PACKETS_DROPPED);
+			}
+		}
+
+		/**
+		 * Reports how long the scan took and when its replies arrived.
+		 */
+		void report(long now) {
+			if (mBurstsSent == 0) {
+				return;
+			}
+			UPnPMetrics.record(UPnPMetrics.Histogram.SCAN_MILLIS, now - mStarted);
+			UPnPMetrics.record(UPnPMetrics.Histogram.SCAN_REPLIES, mTotalReplies);
+			if (mFirstReply != 0) {
+				UPnPMetrics.record(UPnPMetrics.Histogram.FIRST_REPLY_MILLIS, mFirstReply - mStarted);
+				UPnPMetrics.record(UPnPMetrics.Histogram.LAST_REPLY_MILLIS, mLastReply - mStarted);
+			}
+		}
+	}
+
+	/**
+	 * Joins the SSDP multicast group and emits every NOTIFY advertisement
+	 * (ssdp:alive, ssdp:update and ssdp:byebye) until unsubscribed. Runs on the
+	 * subscribing thread, which it occupies for the life of the subscription.
+	 * <p>
+	 * On Android, a WifiManager.MulticastLock must be held while listening.
+	 */
+	public Observable<UPnPNotification> listen() {
+		return Observable.create(new Observable.OnSubscribe<UPnPNotification>() {
+			@Override
+			public void call(final Subscriber<? super UPnPNotification> subscriber) {
+				if (mBindings.isEmpty()) {
+					subscriber.onError(new Exception("no local address"));
+					return;
+				}
+
+				final MulticastSocket socket;
+				try {
+					// Every binding listens on the same port
+					socket = new MulticastSocket(mBindings.get(0).mGroup.getPort());
+				}
+				catch (IOException e) {
+					subscriber.onError(e);
+					return;
+				}
+
+				int joined = 0;
+				for (Binding binding : mBindings) {
+					try {
+						socket.joinGroup(binding.mGroup, binding.mInterface);
+						joined++;
+					}
+					catch (IOException e) {
+						// Already joined on this interface via another address, or unsupported
+						UPnPLog.e(TAG, "unable to join " + binding.mGroup + " on " + binding.mInterface.getName() + ": " + e);
+					}
+				}
+				if (joined == 0) {
+					socket.close();
+					subscriber.onError(new IOException("unable to join any multicast group"));
+					return;
+				}
+
+				// Closing the socket unblocks receive() immediately
+				subscriber.add(Subscriptions.create(new Action0() {
+					@Override
+					public void call() {
+						socket.close();
+					}
+				}));
+
+				byte[] buf = new byte[SSDPEngine.MAX_DATAGRAM_SIZE];
+				DatagramPacket dp = new DatagramPacket(buf, buf.length);
+				ByteBuffer view = ByteBuffer.wrap(buf);
+				SSDPMessage message = new SSDPMessage();
+				// Every USN and LOCATION pair emitted so far
+				HashSet<Sighting> seen = new HashSet<>();
+
+				try {
+					while (!subscriber.isUnsubscribed()) {
+						dp.setLength(buf.length);
+						socket.receive(dp);
+						view.clear();
+						view.limit(dp.getLength());
+						UPnPMetrics.count(UPnPMetrics.Counter.PACKETS_RECEIVED);
+						if (!message.parse(view)) {
+							UPnPMetrics.count(UPnPMetrics.Counter.PARSE_FAILURES);
+							continue;
+						}
+						UPnPNotification notification = message.isNotify() ? toNotification(seen, message) : null;
+						if (notification != null) {
+							subscriber.onNext(notification);
+						}
+						else {
+							// Searches from other hosts, and unusable advertisements
+							UPnPMetrics.count(UPnPMetrics.Counter.PACKETS_DROPPED);
+						}
+					}
+				}
+				catch (IOException e) {
+					if (!subscriber.isUnsubscribed()) {
+						subscriber.onError(e);
+					}
+				}
+				finally {
+					socket.close();
+				}
+			}
+		});
+	}
+
+	private static UPnPNotification toNotification(Set<Sighting> seen, SSDPMessage message) {
+		UPnPNotification.Type type;
+		if (message.valueEqualsIgnoreCase(SSDPMessage.Header.NTS, "ssdp:alive")) {
+			type = UPnPNotification.Type.ALIVE;
+		}
+		else if (message.valueEqualsIgnoreCase(SSDPMessage.Header.NTS, "ssdp:update")) {
+			type = UPnPNotification.Type.UPDATE;
+		}
+		else if (message.valueEqualsIgnoreCase(SSDPMessage.Header.NTS, "ssdp:byebye")) {
+			type = UPnPNotification.Type.BYEBYE;
+		}
+		else {
+			return null;
+		}
+
+		String usn = message.get(SSDPMessage.Header.USN);
+		if (usn == null) {
+			return null;
+		}
+		String nt = message.get(SSDPMessage.Header.NT);
+		int maxAge = message.getMaxAge(UPnPDevice.DEFAULT_MAX_AGE);
+
+		if (type == UPnPNotification.Type.BYEBYE) {
+			// Let the next alive from this USN through, even at the same LOCATION
+			long hash = message.hash(SSDPMessage.Header.USN);
+			for (Iterator<Sighting> i = seen.iterator(); i.hasNext(); ) {
+				if (i.next().mUSN == hash) {
+					i.remove();
+				}
+			}
+			return new UPnPNotification(type, usn, nt, maxAge, null);
+		}
+
+		if (type == UPnPNotification.Type.ALIVE && isDuplicate(seen, message)) {
+			UPnPMetrics.count(UPnPMetrics.Counter.DUPLICATES_SUPPRESSED);
+			return new UPnPNotification(type, usn, nt, maxAge, null);
+		}
+		// An update always goes through: the description may have changed
+		seen.add(new Sighting(message.hash(SSDPMessage.Header.USN), message.hash(SSDPMessage.Header.LOCATION)));
+
+		UPnPDevice device = UPnPDevice.getInstance(message);
+		if (device == null) {
+			return null;
+		}
+		return new UPnPNotification(type, usn, nt, maxAge, device);
+	}
+
+	/**
+	 * Devices answer once per matching ST and once per repeated M-SEARCH. Drop
+	 * replies whose USN has already been seen at the same LOCATION so they never
+	 * reach the description download. A USN is reported once per LOCATION it
+	 * answers from, e.g. once over IPv4 and once over IPv6. {@code seen}
+	 * belongs to one subscription, so a new scan reports everything afresh.
+	 */
+	static boolean isDuplicate(Set<Sighting> seen, SSDPMessage message) {
+		long location = message.hash(SSDPMessage.Header.LOCATION);
+		long usn = message.has(SSDPMessage.Header.USN) ? message.hash(SSDPMessage.Header.USN) : location;
+		return !seen.add(new Sighting(usn, location));
+	}
+
+	/**
+	 * A USN seen at a LOCATION, by their hashes.
+	 */
+	static final class Sighting {
+		final long mUSN;
+		final long mLocation;
+
+		Sighting(long usn, long location) {
+			mUSN = usn;
+			mLocation = location;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Sighting)) {
+				return false;
+			}
+			Sighting other = (Sighting) o;
+			return mUSN == other.mUSN && mLocation == other.mLocation;
+		}
+
+		@Override
+		public int hashCode() {
+			long hash = mUSN * 31 + mLocation;
+			return (int) (hash ^ (hash >>> 32));
+		}
+	}
+
+	////////////////////////////////////////////////////////////////////////////////
+	// Utils
+	////////////////////////////////////////////////////////////////////////////////
+
+	public static final String NEWLINE = "\r\n";
+
+	private static String buildSSDPSearchString(InetSocketAddress group, String st, int mx) {
+		StringBuilder content = new StringBuilder();
+
+		String host = group.getAddress().getHostAddress();
+		if (group.getAddress() instanceof Inet6Address) {
+			host = "[" + (group.getAddress().isMCLinkLocal() ? MULTICAST_ADDRESS_V6_LINK_LOCAL : MULTICAST_ADDRESS_V6_SITE_LOCAL) + "]";
+		}
+
+		content.append("M-SEARCH * HTTP/1.1").append(NEWLINE);
+		content.append("Host: " + host + ":" + group.getPort()).append(NEWLINE);
+		content.append("Man:\"ssdp:discover\"").append(NEWLINE);
+		content.append("MX: " + mx).append(NEWLINE);
+		content.append("ST: " + st).append(NEWLINE);
+		content.append(NEWLINE);
+
+		String search = content.toString();
+		if (UPnPLog.isLoggable(UPnPLog.VERBOSE)) {
+			UPnPLog.v(TAG, search);
+		}
+		return search;
+	}
+
+	/**
+	 * A local address to search from, and the SSDP group to search on.
+	 */
+	private static class Binding {
+		final NetworkInterface mInterface;
+		final InetAddress mAddress;
+		final InetSocketAddress mGroup;
+
+		Binding(NetworkInterface intf, InetAddress address, InetSocketAddress group) {
+			mInterface = intf;
+			mAddress = address;
+			mGroup = group;
+		}
+	}
+
+	/**
+	 * One binding per address on every interface that is up, supports multicast
+	 * and isn't loopback or point-to-point (which rules out most VPN and cellular
+	 * links). IPv4 addresses search 239.255.255.250; IPv6 link-local addresses
+	 * search FF02::C scoped to their interface, and other IPv6 addresses search
+	 * FF05::C.
+	 */
+	private static List<Binding> findBindings(boolean ipv4, boolean ipv6) {
+		List<Binding> bindings = new ArrayList<>();
+
+		List<NetworkInterface> interfaces;
+		try {
+			interfaces = Collections.list(NetworkInterface.getNetworkInterfaces());
+		}
+		catch (SocketException | NullPointerException e) {
+			// Some Android versions throw NPE when there are no interfaces
+			UPnPLog.e(TAG, "unable to list network interfaces: " + e);
+			return bindings;
+		}
+
+		for (NetworkInterface intf : interfaces) {
+			try {
+				if (!intf.isUp() || intf.isLoopback() || intf.isPointToPoint() || !intf.supportsMulticast()) {
+					continue;
+				}
+			}
+			catch (SocketException e) {
+				continue;
+			}
+
+			for (InetAddress addr : Collections.list(intf.getInetAddresses())) {
+				try {
+					if (addr instanceof Inet4Address && ipv4) {
+						bindings.add(new Binding(intf, addr, new InetSocketAddress(MULTICAST_ADDRESS, PORT)));
+					}
+					else if (addr instanceof Inet6Address && ipv6) {
+						Inet6Address addr6 = (Inet6Address) addr;
+						if (addr6.isLinkLocalAddress()) {
+							InetAddress group = InetAddress.getByName(MULTICAST_ADDRESS_V6_LINK_LOCAL);
+							group = Inet6Address.getByAddress(null, group.getAddress(), intf);
+							bindings.add(new Binding(intf, addr, new InetSocketAddress(group, PORT)));
+						}
+						else {
+							bindings.add(new Binding(intf, addr, new InetSocketAddress(MULTICAST_ADDRESS_V6_SITE_LOCAL, PORT)));
+						}
+					}
+				}
+				catch (UnknownHostException e) {
+					// Only literals are looked up; can't happen
+				}
+			}
+		}
+
+		return bindings;
+	}
+
+	private static List<Binding> findBinding(InetAddress localAddress, InetSocketAddress group) {
+		List<Binding> bindings = new ArrayList<>();
+		try {
+			NetworkInterface intf = NetworkInterface.getByInetAddress(localAddress);
+			if (intf != null) {
+				bindings.add(new Binding(intf, localAddress, group));
+			}
+		}
+		catch (SocketException e) {
+			UPnPLog.e(TAG, "unable to find the interface of " + localAddress + ": " + e);
+		}
+		return bindings;
+	}
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2015 Doug Melton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dgmltn.upnpbrowser;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import rx.Observable;
+import rx.Subscriber;
+import rx.subjects.PublishSubject;
+
+/**
+ * The set of devices currently believed to be on the network. Each device is
+ * kept for its CACHE-CONTROL max-age after it was last seen (in a search
+ * response or an ssdp:alive), and removed when that lapses or it says
+ * ssdp:byebye. Changes are published as {@link Event}s.
+ * <p>
+ * Devices are keyed by UDN, so a device that answers for several search
+ * targets is only registered once.
+ * <p>
+ * Expiry runs on a thread of its own; {@link #close()} stops it.
+ */
+public class UPnPDeviceRegistry implements Closeable {
+
+	private static String TAG = UPnPDeviceRegistry.class.getName();
+
+	public static class Event {
+		public enum Type {
+			ADD, UPDATE, REMOVE
+		}
+
+		private final Type mType;
+		private final UPnPDevice mDevice;
+
+		Event(Type type, UPnPDevice device) {
+			mType = type;
+			mDevice = device;
+		}
+
+		public Type getType() {
+			return mType;
+		}
+
+		public UPnPDevice getDevice() {
+			return mDevice;
+		}
+	}
+
+	private final Object mLock = new Object();
+
+	// Guarded by mLock
+	private final HashMap<String, Entry> mEntries = new HashMap<>();
+
+	// Guarded by mLock
+	private final PublishSubject<Event> mEvents = PublishSubject.create();
+
+	private final DelayQueue<Expiry> mExpiries = new DelayQueue<>();
+	private final AtomicLong mExpirySequence = new AtomicLong();
+
+	private final Thread mReaper;
+
+	public UPnPDeviceRegistry() {
+		mReaper = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				reap();
+			}
+		}, "upnp-registry-reaper");
+		mReaper.setDaemon(true);
+		mReaper.start();
+	}
+
+	/**
+	 * Stops expiring devices and completes every {@link #observe()}r. The
+	 * registry shouldn't be used afterwards.
+	 */
+	@Override
+	public void close() {
+		mReaper.interrupt();
+		synchronized (mLock) {
+			mEvents.onCompleted();
+		}
+	}
+
+	/**
+	 * Adds or replaces a device and (re)starts its lifetime.
+	 */
+	public void register(UPnPDevice device) {
+		String key = getKey(device);
+		long expires = expiresAt(device.getMaxAge());
+		Event.Type type;
+		synchronized (mLock) {
+			Entry previous = mEntries.put(key, new Entry(device, expires));
+			type = previous == null ? Event.Type.ADD : Event.Type.UPDATE;
+			mEvents.onNext(new Event(type, device));
+		}
+		mExpiries.put(new Expiry(key, expires, mExpirySequence.incrementAndGet()));
+	}
+
+	/**
+	 * Extends the lifetime of a known device, e.g. on a repeated ssdp:alive.
+	 *
+	 * @return false if the device isn't registered
+	 */
+	public boolean refresh(String udn, int maxAge) {
+		long expires = expiresAt(maxAge);
+		synchronized (mLock) {
+			Entry entry = mEntries.get(udn);
+			if (entry == null) {
+				return false;
+			}
+			entry.mExpires = expires;
+		}
+		mExpiries.put(new Expiry(udn, expires, mExpirySequence.incrementAndGet()));
+		return true;
+	}
+
+	public void remove(String udn) {
+		synchronized (mLock) {
+			Entry entry = mEntries.remove(udn);
+			if (entry != null) {
+				mEvents.onNext(new Event(Event.Type.REMOVE, entry.mDevice));
+			}
+		}
+	}
+
+	/**
+	 * Applies the lifetime effects of an SSDP advertisement. Newly announced
+	 * devices still need their description fetched before they're registered.
+	 */
+	public void handle(UPnPNotification notification) {
+		switch (notification.getType()) {
+		case BYEBYE:
+			remove(notification.getUDN());
+			break;
+		case ALIVE:
+			if (notification.isRepeat()) {
+				refresh(notification.getUDN(), notification.getMaxAge());
+			}
+			break;
+		}
+	}
+
+	public List<UPnPDevice> getDevices() {
+		synchronized (mLock) {
+			List<UPnPDevice> devices = new ArrayList<>(mEntries.size());
+			for (Entry entry : mEntries.values()) {
+				devices.add(entry.mDevice);
+			}
+			return devices;
+		}
+	}
+
+	/**
+	 * Emits an {@link Event.Type#ADD} for every device currently registered,
+	 * followed by every change from then on. Events are delivered on the thread
+	 * that caused them.
+	 */
+	public Observable<Event> observe() {
+		return Observable.create(new Observable.OnSubscribe<Event>() {
+			@Override
+			public void call(Subscriber<? super Event> subscriber) {
+				// Holding the lock means no change can slip in between the
+				// snapshot and the live events
+				synchronized (mLock) {
+					for (Entry entry : mEntries.values()) {
+						subscriber.onNext(new Event(Event.Type.ADD, entry.mDevice));
+					}
+					mEvents.unsafeSubscribe(subscriber);
+				}
+			}
+		});
+	}
+
+	////////////////////////////////////////////////////////////////////////////////
+	// Expiry
+	////////////////////////////////////////////////////////////////////////////////
+
+	private static class Entry {
+		final UPnPDevice mDevice;
+		long mExpires;
+
+		Entry(UPnPDevice device, long expires) {
+			mDevice = device;
+			mExpires = expires;
+		}
+	}
+
+	/**
+	 * A point in time at which a device may expire. Refreshing a device queues a
+	 * new Expiry rather than moving the old one; stale Expiries are ignored when
+	 * they come due. Expiries due at the same time are reaped in the order they
+	 * were queued.
+	 */
+	private static class Expiry implements Delayed {
+		final String mKey;
+		final long mExpires;
+		final long mSequence;
+
+		Expiry(String key, long expires, long sequence) {
+			mKey = key;
+			mExpires = expires;
+			mSequence = sequence;
+		}
+
+		@Override
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(mExpires - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+		}
+
+		@Override
+		public int compareTo(Delayed another) {
+			Expiry other = (Expiry) another;
+			if (mExpires != other.mExpires) {
+				return mExpires < other.mExpires ? -1 : 1;
+			}
+			return mSequence < other.mSequence ? -1 : mSequence == other.mSequence ? 0 : 1;
+		}
+	}
+
+	private void reap() {
+		while (true) {
+			Expiry expiry;
+			try {
+				expiry = mExpiries.take();
+			}
+			catch (InterruptedException e) {
+				return;
+			}
+
+			synchronized (mLock) {
+				Entry entry = mEntries.get(expiry.mKey);
+				if (entry != null && entry.mExpires <= expiry.mExpires) {
+					if (UPnPLog.isLoggable(UPnPLog.DEBUG)) {
+						UPnPLog.d(TAG, "expired: " + expiry.mKey);
+					}
+					mEntries.remove(expiry.mKey);
+					mEvents.onNext(new Event(Event.Type.REMOVE, entry.mDevice));
+				}
+			}
+		}
+	}
+
+	private static long expiresAt(int maxAge) {
+		return System.currentTimeMillis() + maxAge * 1000L;
+	}
+
+	/**
+	 * The key a device is registered under: its UDN, or its LOCATION if it
+	 * has none.
+	 */
+	public static String getKey(UPnPDevice device) {
+		String udn = device.getUDN();
+		return udn != null ? udn : device.getLocation().toExternalForm();
+	}
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2015 Doug Melton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dgmltn.upnpbrowser;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import com.squareup.okhttp.Cache;
+import com.squareup.okhttp.ConnectionPool;
+import com.squareup.okhttp.OkHttpClient;
+
+/**
+ * Builds the single OkHttpClient shared by everything that talks HTTP to
+ * devices. Sharing one client shares its connection pool, dispatcher and
+ * response cache across every device found in a scan.
+ */
+public final class UPnPHttpClient {
+
+	public static final int MAX_IDLE_CONNECTIONS = 16;
+	public static final long KEEP_ALIVE_MILLIS = TimeUnit.MINUTES.toMillis(1);
+	public static final long CONNECT_TIMEOUT_MILLIS = 3000;
+	public static final long READ_TIMEOUT_MILLIS = 5000;
+	public static final long CACHE_SIZE = 4 * 1024 * 1024;
+
+	private UPnPHttpClient() {
+	}
+
+	/**
+	 * @param cacheDir directory for the HTTP response cache, or null to disable
+	 * caching
+	 */
+	public static OkHttpClient create(File cacheDir) {
+		OkHttpClient client = new OkHttpClient();
+		client.setConnectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MILLIS));
+		client.setConnectTimeout(CONNECT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+		client.setReadTimeout(READ_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+		if (cacheDir != null) {
+			client.setCache(new Cache(cacheDir, CACHE_SIZE));
+		}
+		return client;
+	}
+}
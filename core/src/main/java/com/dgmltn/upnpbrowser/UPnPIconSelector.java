@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2015 Doug Melton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dgmltn.upnpbrowser;
+
+import java.util.List;
+
+/**
+ * Picks the icon to show for a device: the smallest one at least as large as
+ * the size it will be drawn at, so that it never has to be scaled up and
+ * decoding it costs as little as possible. Among icons of the same size PNG is
+ * preferred, then JPEG, then GIF. If every icon is too small, the largest is
+ * used.
+ */
+public final class UPnPIconSelector {
+
+	private static final String[] MIME_PREFERENCE = { "image/png", "image/jpeg", "image/gif" };
+
+	// In pixels; set from R.dimen.icon_size by UPnPBrowserApplication
+	private static volatile int sTargetSize = 96;
+
+	private UPnPIconSelector() {
+	}
+
+	public static void setTargetSize(int pixels) {
+		sTargetSize = pixels;
+	}
+
+	public static int getTargetSize() {
+		return sTargetSize;
+	}
+
+	/**
+	 * @return the best icon of {@code device}, or of its embedded devices (depth
+	 * first) if it has none, or null
+	 */
+	public static UPnPDescription.Icon select(UPnPDescription.Device device) {
+		UPnPDescription.Icon icon = select(device.getIcons(), sTargetSize);
+		if (icon != null) {
+			return icon;
+		}
+		for (UPnPDescription.Device embedded : device.getDevices()) {
+			icon = select(embedded);
+			if (icon != null) {
+				return icon;
+			}
+		}
+		return null;
+	}
+
+	public static UPnPDescription.Icon select(List<UPnPDescription.Icon> icons, int targetSize) {
+		UPnPDescription.Icon best = null;
+		for (UPnPDescription.Icon icon : icons) {
+			if (icon.getUrl() == null || icon.getUrl().length() == 0) {
+				continue;
+			}
+			if (best == null || isBetter(icon, best, targetSize)) {
+				best = icon;
+			}
+		}
+		return best;
+	}
+
+	private static boolean isBetter(UPnPDescription.Icon icon, UPnPDescription.Icon best, int targetSize) {
+		int size = size(icon);
+		int bestSize = size(best);
+		boolean fits = size >= targetSize;
+		boolean bestFits = bestSize >= targetSize;
+
+		if (fits != bestFits) {
+			return fits;
+		}
+		if (size != bestSize) {
+			// Smallest that fits, otherwise largest
+			return fits ? size < bestSize : size > bestSize;
+		}
+		return mimeRank(icon.getMimeType()) < mimeRank(best.getMimeType());
+	}
+
+	private static int size(UPnPDescription.Icon icon) {
+		return Math.min(icon.getWidth(), icon.getHeight());
+	}
+
+	private static int mimeRank(String mimeType) {
+		for (int i = 0; i < MIME_PREFERENCE.length; i++) {
+			if (MIME_PREFERENCE[i].equalsIgnoreCase(mimeType)) {
+				return i;
+			}
+		}
+		return MIME_PREFERENCE.length;
+	}
+}
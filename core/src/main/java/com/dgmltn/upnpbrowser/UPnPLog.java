@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2015 Doug Melton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dgmltn.upnpbrowser;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Logging for the discovery core, which can't depend on android.util.Log.
+ * Messages go to java.util.logging unless the host installs its own
+ * {@link Sink} with {@link #setSink}, as the Android app does.
+ * <p>
+ * Messages below {@link #setLevel the level} (INFO by default) are dropped
+ * before they reach the sink. Anything logged per packet or per device must
+ * also check {@link #isLoggable} before building its message, so that with
+ * the level raised the hot paths build no strings at all.
+ */
+public final class UPnPLog {
+
+	// Same values as android.util.Log, so a sink can pass them straight through
+	public static final int VERBOSE = 2;
+	public static final int DEBUG = 3;
+	public static final int INFO = 4;
+	public static final int WARN = 5;
+	public static final int ERROR = 6;
+
+	public interface Sink {
+		/**
+		 * Called on whatever thread logged the message. {@code throwable} may be null.
+		 */
+		public void log(int level, String tag, String message, Throwable throwable);
+	}
+
+	/**
+	 * Writes to java.util.logging, one Logger per tag.
+	 */
+	public static final Sink JAVA_LOGGING = new Sink() {
+		@Override
+		public void log(int level, String tag, String message, Throwable throwable) {
+			Logger.getLogger(tag).logp(toLevel(level), tag, null, message, throwable);
+		}
+	};
+
+	private static volatile Sink sSink = JAVA_LOGGING;
+	private static volatile int sLevel = INFO;
+
+	private UPnPLog() {
+	}
+
+	public static void setSink(Sink sink) {
+		sSink = sink == null ? JAVA_LOGGING : sink;
+	}
+
+	/**
+	 * Drops messages below {@code level}, e.g. WARN in release builds.
+	 */
+	public static void setLevel(int level) {
+		sLevel = level;
+	}
+
+	public static boolean isLoggable(int level) {
+		return level >= sLevel;
+	}
+
+	public static void v(String tag, String message) {
+		log(VERBOSE, tag, message, null);
+	}
+
+	public static void d(String tag, String message) {
+		log(DEBUG, tag, message, null);
+	}
+
+	public static void i(String tag, String message) {
+		log(INFO, tag, message, null);
+	}
+
+	public static void w(String tag, String message) {
+		log(WARN, tag, message, null);
+	}
+
+	public static void w(String tag, String message, Throwable throwable) {
+		log(WARN, tag, message, throwable);
+	}
+
+	public static void e(String tag, String message) {
+		log(ERROR, tag, message, null);
+	}
+
+	public static void e(String tag, String message, Throwable throwable) {
+		log(ERROR, tag, message, throwable);
+	}
+
+	private static void log(int level, String tag, String message, Throwable throwable) {
+		if (level >= sLevel) {
+			sSink.log(level, tag, message, throwable);
+		}
+	}
+
+	private static Level toLevel(int level) {
+		switch (level) {
+		case VERBOSE:
+			return Level.FINER;
+		case DEBUG:
+			return Level.FINE;
+		case INFO:
+			return Level.INFO;
+		case WARN:
+			return Level.WARNING;
+		default:
+			return Level.SEVERE;
+		}
+	}
+}
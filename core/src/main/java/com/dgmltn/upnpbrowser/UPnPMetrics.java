@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2015 Doug Melton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dgmltn.upnpbrowser;
+
+/**
+ * Counters, histograms and gauges for discovery, reported to a pluggable
+ * {@link Sink}. Metrics are enums rather than names so reporting one is a
+ * volatile read and a virtual call, with nothing allocated; with no sink
+ * installed it does nothing at all. {@link UPnPMetricsRecorder} keeps them in
+ * memory.
+ */
+public final class UPnPMetrics {
+
+	public enum Counter {
+		/** SSDP datagrams received while searching or listening */
+		PACKETS_RECEIVED,
+		/** Datagrams that parsed but weren't a usable reply or advertisement */
+		PACKETS_DROPPED,
+		/** Datagrams that weren't SSDP at all */
+		PARSE_FAILURES,
+		/** Replies and alives for a USN already seen at the same LOCATION */
+		DUPLICATES_SUPPRESSED,
+		/** M-SEARCH datagrams sent, one per target per address per burst */
+		SEARCHES_SENT,
+		/** Descriptions found in the disk cache */
+		DESCRIPTION_CACHE_HITS,
+		/** Descriptions that had to be downloaded */
+		DESCRIPTION_CACHE_MISSES,
+		/** Devices that joined a download already under way for their LOCATION */
+		DESCRIPTIONS_SHARED,
+		/** Downloads that failed or didn't parse */
+		DESCRIPTION_FAILURES,
+		/** Icons found in the memory cache */
+		ICON_CACHE_HITS,
+		/** Icons that had to be loaded from disk or downloaded */
+		ICON_CACHE_MISSES,
+	}
+
+	public enum Histogram {
+		/** From the first M-SEARCH of a scan to its first reply */
+		FIRST_REPLY_MILLIS,
+		/** From the first M-SEARCH of a scan to its last reply */
+		LAST_REPLY_MILLIS,
+		/** Length of a whole scan */
+		SCAN_MILLIS,
+		/** Replies received per scan, duplicates included */
+		SCAN_REPLIES,
+		/** One description download, request to parsed */
+		DESCRIPTION_FETCH_MILLIS,
+		/** Size of one description document */
+		DESCRIPTION_BYTES,
+	}
+
+	public enum Gauge {
+		/** Description loads running right now */
+		DESCRIPTION_FETCHES_IN_FLIGHT,
+	}
+
+	public interface Sink {
+		/**
+		 * Called on whatever thread reported the metric; must be thread-safe and
+		 * should be cheap.
+		 */
+		public void count(Counter counter, long delta);
+
+		public void record(Histogram histogram, long value);
+
+		public void set(Gauge gauge, long value);
+	}
+
+	private static volatile Sink sSink;
+
+	private UPnPMetrics() {
+	}
+
+	/**
+	 * Installs {@code sink}, or removes the current one if null.
+	 */
+	public static void setSink(Sink sink) {
+		sSink = sink;
+	}
+
+	public static void count(Counter counter) {
+		Sink sink = sSink;
+		if (sink != null) {
+			sink.count(counter, 1);
+		}
+	}
+
+	public static void count(Counter counter, long delta) {
+		Sink sink = sSink;
+		if (sink != null) {
+			sink.count(counter, delta);
+		}
+	}
+
+	public static void record(Histogram histogram, long value) {
+		Sink sink = sSink;
+		if (sink != null) {
+			sink.record(histogram, value);
+		}
+	}
+
+	public static void set(Gauge gauge, long value) {
+		Sink sink = sSink;
+		if (sink != null) {
+			sink.set(gauge, value);
+		}
+	}
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2015 Doug Melton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dgmltn.upnpbrowser;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A {@link UPnPMetrics.Sink} that keeps everything in memory, lock free.
+ * Histograms use power-of-two buckets, so percentiles are approximate (to
+ * within a factor of two) but recording is a few atomic adds.
+ */
+public class UPnPMetricsRecorder implements UPnPMetrics.Sink {
+
+	private static final UPnPMetrics.Counter[] COUNTERS = UPnPMetrics.Counter.values();
+	private static final UPnPMetrics.Histogram[] HISTOGRAMS = UPnPMetrics.Histogram.values();
+	private static final UPnPMetrics.Gauge[] GAUGES = UPnPMetrics.Gauge.values();
+
+	// Bucket i holds values in [2^(i-1), 2^i), bucket 0 holds 0 and below
+	private static final int BUCKETS = 64;
+
+	// Per histogram: count, sum, max, then the buckets
+	private static final int COUNT = 0;
+	private static final int SUM = 1;
+	private static final int MAX = 2;
+	private static final int FIRST_BUCKET = 3;
+	private static final int HISTOGRAM_SIZE = FIRST_BUCKET + BUCKETS;
+
+	private final AtomicLongArray mCounters = new AtomicLongArray(COUNTERS.length);
+	private final AtomicLongArray mHistograms = new AtomicLongArray(HISTOGRAMS.length * HISTOGRAM_SIZE);
+
+	// Per gauge: current value, then the highest seen
+	private final AtomicLongArray mGauges = new AtomicLongArray(GAUGES.length * 2);
+
+	@Override
+	public void count(UPnPMetrics.Counter counter, long delta) {
+		mCounters.addAndGet(counter.ordinal(), delta);
+	}
+
+	@Override
+	public void record(UPnPMetrics.Histogram histogram, long value) {
+		int base = histogram.ordinal() * HISTOGRAM_SIZE;
+		mHistograms.incrementAndGet(base + COUNT);
+		mHistograms.addAndGet(base + SUM, value);
+		raise(mHistograms, base + MAX, value);
+		int bucket = value <= 0 ? 0 : BUCKETS - Long.numberOfLeadingZeros(value);
+		mHistograms.incrementAndGet(base + FIRST_BUCKET + Math.min(bucket, BUCKETS - 1));
+	}
+
+	@Override
+	public void set(UPnPMetrics.Gauge gauge, long value) {
+		int base = gauge.ordinal() * 2;
+		mGauges.set(base, value);
+		raise(mGauges, base + 1, value);
+	}
+
+	public long getCount(UPnPMetrics.Counter counter) {
+		return mCounters.get(counter.ordinal());
+	}
+
+	public long getCount(UPnPMetrics.Histogram histogram) {
+		return mHistograms.get(histogram.ordinal() * HISTOGRAM_SIZE + COUNT);
+	}
+
+	public long getMean(UPnPMetrics.Histogram histogram) {
+		int base = histogram.ordinal() * HISTOGRAM_SIZE;
+		long count = mHistograms.get(base + COUNT);
+		return count == 0 ? 0 : mHistograms.get(base + SUM) / count;
+	}
+
+	public long getMax(UPnPMetrics.Histogram histogram) {
+		return mHistograms.get(histogram.ordinal() * HISTOGRAM_SIZE + MAX);
+	}
+
+	/**
+	 * The upper bound of the bucket holding the {@code percentile}th value,
+	 * capped at the largest value recorded.
+	 */
+	public long getPercentile(UPnPMetrics.Histogram histogram, int percentile) {
+		int base = histogram.ordinal() * HISTOGRAM_SIZE;
+		long count = mHistograms.get(base + COUNT);
+		if (count == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (count * percentile + 99) / 100);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += mHistograms.get(base + FIRST_BUCKET + i);
+			if (seen >= rank) {
+				long upper = i == 0 ? 0 : (1L << i) - 1;
+				return Math.min(upper, mHistograms.get(base + MAX));
+			}
+		}
+		return mHistograms.get(base + MAX);
+	}
+
+	public long getValue(UPnPMetrics.Gauge gauge) {
+		return mGauges.get(gauge.ordinal() * 2);
+	}
+
+	public long getMax(UPnPMetrics.Gauge gauge) {
+		return mGauges.get(gauge.ordinal() * 2 + 1);
+	}
+
+	/**
+	 * Hits over hits plus misses, or 0 if there were neither.
+	 */
+	public double getRatio(UPnPMetrics.Counter hits, UPnPMetrics.Counter misses) {
+		long h = getCount(hits);
+		long total = h + getCount(misses);
+		return total == 0 ? 0 : (double) h / total;
+	}
+
+	/**
+	 * Zeroes everything but the current gauge values.
+	 */
+	public void reset() {
+		for (int i = 0; i < mCounters.length(); i++) {
+			mCounters.set(i, 0);
+		}
+		for (int i = 0; i < mHistograms.length(); i++) {
+			mHistograms.set(i, 0);
+		}
+		for (int i = 0; i < GAUGES.length; i++) {
+			mGauges.set(i * 2 + 1, mGauges.get(i * 2));
+		}
+	}
+
+	/**
+	 * A plain text report of every metric, one per line.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder report = new StringBuilder();
+		for (UPnPMetrics.Counter counter : COUNTERS) {
+			report.append(String.format(Locale.US, "%s: %d%n", name(counter), getCount(counter)));
+		}
+		report.append(String.format(Locale.US, "description cache hit ratio: %.0f%%%n",
+			getRatio(UPnPMetrics.Counter.DESCRIPTION_CACHE_HITS, UPnPMetrics.Counter.DESCRIPTION_CACHE_MISSES) * 100));
+		report.append(String.format(Locale.US, "icon cache hit ratio: %.0f%%%n",
+			getRatio(UPnPMetrics.Counter.ICON_CACHE_HITS, UPnPMetrics.Counter.ICON_CACHE_MISSES) * 100));
+		for (UPnPMetrics.Gauge gauge : GAUGES) {
+			report.append(String.format(Locale.US, "%s: %d (max %d)%n", name(gauge), getValue(gauge), getMax(gauge)));
+		}
+		for (UPnPMetrics.Histogram histogram : HISTOGRAMS) {
+			report.append(String.format(Locale.US, "%s: n=%d mean=%d p50=%d p90=%d p99=%d max=%d%n", name(histogram),
+				getCount(histogram), getMean(histogram), getPercentile(histogram, 50), getPercentile(histogram, 90),
+				getPercentile(histogram, 99), getMax(histogram)));
+		}
+		return report.toString();
+	}
+
+	private static String name(Enum<?> metric) {
+		return metric.name().toLowerCase(Locale.US).replace('_', ' ');
+	}
+
+	private static void raise(AtomicLongArray array, int index, long value) {
+		long current;
+		do {
+			current = array.get(index);
+			if (value <= current) {
+				return;
+			}
+		} while (!array.compareAndSet(index, current, value));
+	}
+}
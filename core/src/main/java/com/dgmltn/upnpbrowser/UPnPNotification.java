@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2015 Doug Melton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dgmltn.upnpbrowser;
+
+/**
+ * An unsolicited SSDP advertisement (NOTIFY) received while listening on the
+ * multicast group.
+ *
+ * @see UPnPDeviceFinder#listen()
+ */
+public class UPnPNotification {
+
+	public enum Type {
+		/**
+		 * ssdp:alive, a device joined the network or re-announced itself
+		 */
+		ALIVE,
+
+		/**
+		 * ssdp:update, a device's BOOTID changed; its description may have too
+		 */
+		UPDATE,
+
+		/**
+		 * ssdp:byebye, a device is leaving the network
+		 */
+		BYEBYE
+	}
+
+	private final Type mType;
+	private final String mUSN;
+	private final String mNT;
+	private final int mMaxAge;
+	private final UPnPDevice mDevice;
+
+	UPnPNotification(Type type, String usn, String nt, int maxAge, UPnPDevice device) {
+		mType = type;
+		mUSN = usn;
+		mNT = nt;
+		mMaxAge = maxAge;
+		mDevice = device;
+	}
+
+	public Type getType() {
+		return mType;
+	}
+
+	public String getUSN() {
+		return mUSN;
+	}
+
+	public String getUDN() {
+		return UPnPDevice.parseUDN(mUSN);
+	}
+
+	/**
+	 * The notification type (NT), e.g. "upnp:rootdevice"
+	 */
+	public String getNT() {
+		return mNT;
+	}
+
+	/**
+	 * CACHE-CONTROL max-age in seconds. Meaningless for {@link Type#BYEBYE}.
+	 */
+	public int getMaxAge() {
+		return mMaxAge;
+	}
+
+	/**
+	 * The announced device, or null for {@link Type#BYEBYE} and for an
+	 * {@link Type#ALIVE} that only repeats one already seen from the same
+	 * LOCATION (see {@link #isRepeat()}).
+	 */
+	public UPnPDevice getDevice() {
+		return mDevice;
+	}
+
+	/**
+	 * True for a periodic re-announcement of a USN already seen at the same
+	 * LOCATION. Repeats only extend the device's lifetime; there's nothing new to
+	 * fetch.
+	 */
+	public boolean isRepeat() {
+		return mType == Type.ALIVE && mDevice == null;
+	}
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2015 Doug Melton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dgmltn.upnpbrowser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.squareup.okhttp.OkHttpClient;
+
+/**
+ * Headless LAN scan: one search with the default strategy, descriptions
+ * fetched, and every device (embedded ones included) printed to stdout, one
+ * per line, in the same order as the app's list.
+ *
+ *   java -cp core.jar:okhttp.jar:okio.jar:rxjava.jar com.dgmltn.upnpbrowser.UPnPScanner
+ */
+public final class UPnPScanner {
+
+	private UPnPScanner() {
+	}
+
+	public static void main(String[] args) {
+		OkHttpClient client = UPnPHttpClient.create(null);
+		UPnPDescriptionFetcher fetcher = new UPnPDescriptionFetcher(client, null);
+
+		List<UPnPDevice> devices = new UPnPDeviceFinder().observe()
+			.compose(fetcher)
+			.toList()
+			.toBlocking()
+			.single();
+
+		List<UPnPDevice> all = new ArrayList<>();
+		for (UPnPDevice device : devices) {
+			all.add(device);
+			all.addAll(device.getEmbeddedDevices());
+		}
+		Collections.sort(all, new UPnPDeviceComparator());
+
+		for (UPnPDevice device : all) {
+			System.out.println((device.isEmbedded() ? "  " : "")
+				+ device.getScrubbedFriendlyName()
+				+ "\t" + device.getLocation()
+				+ "\t" + device.getDeviceType()
+				+ "\t" + device.getUDN());
+		}
+
+		// The fetch threads are pooled; don't wait for them to idle out
+		System.exit(0);
+	}
+}
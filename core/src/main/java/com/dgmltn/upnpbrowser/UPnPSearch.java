@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2015 Doug Melton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dgmltn.upnpbrowser;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+import rx.Observable;
+import rx.Scheduler;
+import rx.Subscriber;
+import rx.Subscription;
+import rx.schedulers.Schedulers;
+import rx.subjects.PublishSubject;
+
+/**
+ * A single scan for several search targets at once, with replies routed to a
+ * separate stream per target by their ST header. All targets share one socket
+ * session: every burst carries an M-SEARCH for each target.
+ * <pre>
+ * UPnPSearch search = finder.search(new UPnPSearchStrategy.Builder()
+ *     .addTarget(ST_MEDIA_RENDERER)
+ *     .addTarget(ST_MEDIA_SERVER)
+ *     .build());
+ * search.observe(ST_MEDIA_RENDERER).subscribe(...);
+ * search.observe(ST_MEDIA_SERVER).subscribe(...);
+ * search.start();
+ * </pre>
+ * Subscribe to every target of interest before calling {@link #start()};
+ * replies are not replayed. The scan runs on a background thread, so
+ * {@code start()} returns at once and may be called from the main thread;
+ * the streams are delivered on that background thread.
+ *
+ * @see UPnPDeviceFinder#search(UPnPSearchStrategy)
+ */
+public class UPnPSearch {
+
+	private final Observable<UPnPDevice> mDevices;
+	private final PublishSubject<UPnPDevice> mAll = PublishSubject.create();
+	private final ConcurrentHashMap<String, PublishSubject<UPnPDevice>> mTargets = new ConcurrentHashMap<>();
+
+	UPnPSearch(Observable<UPnPDevice> devices) {
+		mDevices = devices;
+	}
+
+	/**
+	 * Devices whose reply carried this ST. {@link UPnPSearchStrategy#ST_ALL}
+	 * receives every reply, whatever target it answers.
+	 */
+	public Observable<UPnPDevice> observe(String st) {
+		if (UPnPSearchStrategy.ST_ALL.equalsIgnoreCase(st)) {
+			return mAll.asObservable();
+		}
+		String key = st.toLowerCase(Locale.US);
+		PublishSubject<UPnPDevice> subject = mTargets.get(key);
+		if (subject == null) {
+			PublishSubject<UPnPDevice> created = PublishSubject.create();
+			subject = mTargets.putIfAbsent(key, created);
+			if (subject == null) {
+				subject = created;
+			}
+		}
+		return subject.asObservable();
+	}
+
+	/**
+	 * Starts the scan on {@link Schedulers#io()}. Unsubscribe to end it early.
+	 */
+	public Subscription start() {
+		return start(Schedulers.io());
+	}
+
+	/**
+	 * Starts the scan on {@code scheduler}, which it occupies until the scan is
+	 * over. Unsubscribe to end it early.
+	 */
+	public Subscription start(Scheduler scheduler) {
+		return mDevices.subscribeOn(scheduler).subscribe(new Subscriber<UPnPDevice>() {
+			@Override
+			public void onNext(UPnPDevice device) {
+				mAll.onNext(device);
+				String st = device.getST();
+				if (st != null) {
+					PublishSubject<UPnPDevice> subject = mTargets.get(st.toLowerCase(Locale.US));
+					if (subject != null) {
+						subject.onNext(device);
+					}
+				}
+			}
+
+			@Override
+			public void onCompleted() {
+				mAll.onCompleted();
+				for (PublishSubject<UPnPDevice> subject : mTargets.values()) {
+					subject.onCompleted();
+				}
+			}
+
+			@Override
+			public void onError(Throwable e) {
+				mAll.onError(e);
+				for (PublishSubject<UPnPDevice> subject : mTargets.values()) {
+					subject.onError(e);
+				}
+			}
+		});
+	}
+}
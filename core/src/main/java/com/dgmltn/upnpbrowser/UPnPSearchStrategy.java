@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2015 Doug Melton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dgmltn.upnpbrowser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * How a search is performed: which search targets (ST) to ask for, the MX to
+ * ask with, how many times to repeat the M-SEARCH to cover UDP loss, and when
+ * to give up listening.
+ * <p>
+ * A scan sends {@link #getBursts()} bursts {@link #getBurstInterval()} ms
+ * apart. Once the last burst is out, the scan ends as soon as nothing has been
+ * heard for {@link #getQuietPeriod()} ms, and never later than MX seconds plus
+ * a second after the last burst.
+ */
+public class UPnPSearchStrategy {
+
+	public static final String ST_ROOT_DEVICE = "upnp:rootdevice";
+	public static final String ST_ALL = "ssdp:all";
+	public static final String ST_MEDIA_RENDERER = "urn:schemas-upnp-org:device:MediaRenderer:1";
+	public static final String ST_MEDIA_SERVER = "urn:schemas-upnp-org:device:MediaServer:1";
+	public static final String ST_INTERNET_GATEWAY = "urn:schemas-upnp-org:device:InternetGatewayDevice:1";
+
+	public interface Listener {
+		/**
+		 * Called on the scanning thread when an interval ends. Interval {@code i}
+		 * starts when burst {@code i} is sent; the last one ends with the scan.
+		 *
+		 * @param replies the number of responses received during the interval,
+		 * duplicates included
+		 */
+		public void onInterval(int interval, int replies);
+	}
+
+	private final List<String> mTargets;
+	private final int mMX;
+	private final int mBursts;
+	private final long mBurstInterval;
+	private final long mQuietPeriod;
+	private final Listener mListener;
+
+	private UPnPSearchStrategy(Builder builder) {
+		mTargets = Collections.unmodifiableList(new ArrayList<>(builder.mTargets));
+		mMX = builder.mMX;
+		mBursts = builder.mBursts;
+		mBurstInterval = builder.mBurstInterval;
+		mQuietPeriod = builder.mQuietPeriod;
+		mListener = builder.mListener;
+	}
+
+	public static UPnPSearchStrategy getDefault() {
+		return new Builder().build();
+	}
+
+	public List<String> getTargets() {
+		return mTargets;
+	}
+
+	/**
+	 * Maximum wait time in seconds that devices may delay their response by.
+	 */
+	public int getMX() {
+		return mMX;
+	}
+
+	public int getBursts() {
+		return mBursts;
+	}
+
+	public long getBurstInterval() {
+		return mBurstInterval;
+	}
+
+	public long getQuietPeriod() {
+		return mQuietPeriod;
+	}
+
+	/**
+	 * How long a scan may last at most, from the first burst.
+	 */
+	public long getMaxDuration() {
+		return (mBursts - 1) * mBurstInterval + mMX * 1000L + 1000L;
+	}
+
+	public Listener getListener() {
+		return mListener;
+	}
+
+	public static class Builder {
+		private final List<String> mTargets = new ArrayList<>();
+		private int mMX = 2;
+		private int mBursts = 3;
+		private long mBurstInterval = 500;
+		private long mQuietPeriod = 1500;
+		private Listener mListener;
+
+		/**
+		 * Adds a search target, e.g. "urn:schemas-upnp-org:device:MediaRenderer:1".
+		 * Defaults to {@link #ST_ROOT_DEVICE} if none are added.
+		 */
+		public Builder addTarget(String st) {
+			mTargets.add(st);
+			return this;
+		}
+
+		/**
+		 * UDA allows 1 to 5 seconds. Defaults to 2.
+		 */
+		public Builder setMX(int seconds) {
+			mMX = Math.max(1, Math.min(5, seconds));
+			return this;
+		}
+
+		/**
+		 * Defaults to 3 bursts, 500 ms apart.
+		 */
+		public Builder setBursts(int bursts, long intervalMillis) {
+			mBursts = Math.max(1, bursts);
+			mBurstInterval = Math.max(0, intervalMillis);
+			return this;
+		}
+
+		/**
+		 * Defaults to 1500 ms.
+		 */
+		public Builder setQuietPeriod(long millis) {
+			mQuietPeriod = millis;
+			return this;
+		}
+
+		public Builder setListener(Listener listener) {
+			mListener = listener;
+			return this;
+		}
+
+		public UPnPSearchStrategy build() {
+			if (mTargets.isEmpty()) {
+				mTargets.add(ST_ROOT_DEVICE);
+			}
+			return new UPnPSearchStrategy(this);
+		}
+	}
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2015 Doug Melton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dgmltn.upnpbrowser;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A UPnP service description (SCPD) document: the actions a service offers and
+ * the state variables behind them, in document order and indexed by name.
+ *
+ * @see UPnPServiceDescriptionParser
+ */
+public class UPnPServiceDescription implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	final Map<String, Action> mActions = new LinkedHashMap<>();
+	final Map<String, StateVariable> mStateVariables = new LinkedHashMap<>();
+
+	public Collection<Action> getActions() {
+		return Collections.unmodifiableCollection(mActions.values());
+	}
+
+	/**
+	 * Action names are case sensitive, as in the control protocol.
+	 */
+	public Action getAction(String name) {
+		return mActions.get(name);
+	}
+
+	public Collection<StateVariable> getStateVariables() {
+		return Collections.unmodifiableCollection(mStateVariables.values());
+	}
+
+	public StateVariable getStateVariable(String name) {
+		return mStateVariables.get(name);
+	}
+
+	public static class Action implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		String mName;
+		final List<Argument> mArguments = new ArrayList<>();
+
+		public String getName() {
+			return mName;
+		}
+
+		public List<Argument> getArguments() {
+			return mArguments;
+		}
+	}
+
+	public static class Argument implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		String mName;
+		String mDirection;
+		String mRelatedStateVariable;
+
+		public String getName() {
+			return mName;
+		}
+
+		/**
+		 * "in" or "out"
+		 */
+		public String getDirection() {
+			return mDirection;
+		}
+
+		public boolean isOutput() {
+			return "out".equalsIgnoreCase(mDirection);
+		}
+
+		public String getRelatedStateVariable() {
+			return mRelatedStateVariable;
+		}
+	}
+
+	public static class StateVariable implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		String mName;
+		String mDataType;
+		String mDefaultValue;
+		boolean mSendEvents;
+		final List<String> mAllowedValues = new ArrayList<>();
+
+		public String getName() {
+			return mName;
+		}
+
+		/**
+		 * e.g. "string", "ui4", "boolean"
+		 */
+		public String getDataType() {
+			return mDataType;
+		}
+
+		public String getDefaultValue() {
+			return mDefaultValue;
+		}
+
+		/**
+		 * True if changes to this variable are reported to GENA subscribers.
+		 */
+		public boolean isSendEvents() {
+			return mSendEvents;
+		}
+
+		public List<String> getAllowedValues() {
+			return mAllowedValues;
+		}
+	}
+}
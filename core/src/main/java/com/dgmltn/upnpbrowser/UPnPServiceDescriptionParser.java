@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2015 Doug Melton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dgmltn.upnpbrowser;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * Streaming (SAX) parser for UPnP service description (SCPD) documents.
+ */
+public final class UPnPServiceDescriptionParser {
+
+	private static final SAXParserFactory FACTORY = UPnPXml.newParserFactory();
+
+	private static final ThreadLocal<SAXParser> PARSER = new ThreadLocal<SAXParser>() {
+		@Override
+		protected SAXParser initialValue() {
+			try {
+				synchronized (FACTORY) {
+					return FACTORY.newSAXParser();
+				}
+			}
+			catch (ParserConfigurationException | SAXException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	};
+
+	private UPnPServiceDescriptionParser() {
+	}
+
+	public static UPnPServiceDescription parse(InputStream in) throws IOException, SAXException {
+		Handler handler = new Handler();
+		SAXParser parser = PARSER.get();
+		try {
+			parser.parse(new InputSource(in), handler);
+		}
+		finally {
+			parser.reset();
+		}
+		return handler.mDescription;
+	}
+
+	private static class Handler extends UPnPXml.Handler {
+		private final UPnPServiceDescription mDescription = new UPnPServiceDescription();
+		private final StringBuilder mText = new StringBuilder();
+		private UPnPServiceDescription.Action mAction;
+		private UPnPServiceDescription.Argument mArgument;
+		private UPnPServiceDescription.StateVariable mVariable;
+
+		@Override
+		public void startElement(String uri, String localName, String qName, Attributes attributes) {
+			String name = name(localName, qName);
+			mText.setLength(0);
+
+			switch (name) {
+			case "action":
+				mAction = new UPnPServiceDescription.Action();
+				break;
+			case "argument":
+				mArgument = new UPnPServiceDescription.Argument();
+				break;
+			case "stateVariable":
+				mVariable = new UPnPServiceDescription.StateVariable();
+				// Defaults to yes when the attribute is absent
+				mVariable.mSendEvents = !"no".equalsIgnoreCase(attributes.getValue("sendEvents"));
+				break;
+			}
+		}
+
+		@Override
+		public void characters(char[] ch, int start, int length) {
+			mText.append(ch, start, length);
+		}
+
+		@Override
+		public void endElement(String uri, String localName, String qName) {
+			String name = name(localName, qName);
+
+			if (name.equals("action")) {
+				if (mAction != null && mAction.mName != null) {
+					mDescription.mActions.put(mAction.mName, mAction);
+				}
+				mAction = null;
+			}
+			else if (name.equals("argument")) {
+				if (mAction != null && mArgument != null) {
+					mAction.mArguments.add(mArgument);
+				}
+				mArgument = null;
+			}
+			else if (name.equals("stateVariable")) {
+				if (mVariable != null && mVariable.mName != null) {
+					mDescription.mStateVariables.put(mVariable.mName, mVariable);
+				}
+				mVariable = null;
+			}
+			else if (mArgument != null) {
+				setArgumentField(mArgument, name, text());
+			}
+			else if (mAction != null) {
+				if (name.equals("name")) {
+					mAction.mName = text();
+				}
+			}
+			else if (mVariable != null) {
+				setStateVariableField(mVariable, name, text());
+			}
+		}
+
+		private String text() {
+			return mText.toString().trim();
+		}
+
+		private static String name(String localName, String qName) {
+			if (localName != null && localName.length() > 0) {
+				return localName;
+			}
+			int colon = qName.indexOf(':');
+			return colon == -1 ? qName : qName.substring(colon + 1);
+		}
+
+		private static void setArgumentField(UPnPServiceDescription.Argument argument, String name, String value) {
+			switch (name) {
+			case "name":
+				argument.mName = value;
+				break;
+			case "direction":
+				argument.mDirection = value;
+				break;
+			case "relatedStateVariable":
+				argument.mRelatedStateVariable = value;
+				break;
+			}
+		}
+
+		private static void setStateVariableField(UPnPServiceDescription.StateVariable variable, String name, String value) {
+			switch (name) {
+			case "name":
+				variable.mName = value;
+				break;
+			case "dataType":
+				variable.mDataType = value;
+				break;
+			case "defaultValue":
+				variable.mDefaultValue = value;
+				break;
+			case "allowedValue":
+				variable.mAllowedValues.add(value);
+				break;
+			}
+		}
+	}
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2015 Doug Melton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dgmltn.upnpbrowser;
+
+import java.io.StringReader;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * SAX setup shared by the parsers. Descriptions, SCPDs and event bodies come
+ * from anything on the LAN, so no DTD is read and no entity is resolved.
+ */
+final class UPnPXml {
+
+	private UPnPXml() {
+	}
+
+	/**
+	 * A factory that rejects DOCTYPEs and ignores external entities, as far as
+	 * the platform's parser supports it. Android's only knows the namespace
+	 * features; there, {@link Handler} is what keeps entities out.
+	 */
+	static SAXParserFactory newParserFactory() {
+		SAXParserFactory factory = SAXParserFactory.newInstance();
+		setFeature(factory, XMLConstants.FEATURE_SECURE_PROCESSING, true);
+		setFeature(factory, "http://apache.org/xml/features/disallow-doctype-decl", true);
+		setFeature(factory, "http://xml.org/sax/features/external-general-entities", false);
+		setFeature(factory, "http://xml.org/sax/features/external-parameter-entities", false);
+		setFeature(factory, "http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+		return factory;
+	}
+
+	private static void setFeature(SAXParserFactory factory, String name, boolean value) {
+		try {
+			factory.setFeature(name, value);
+		}
+		catch (ParserConfigurationException | SAXException e) {
+			// Not supported by this parser
+		}
+	}
+
+	/**
+	 * Base for the parsers' handlers: resolves every external entity to
+	 * nothing rather than fetching it.
+	 */
+	static class Handler extends DefaultHandler {
+		@Override
+		public InputSource resolveEntity(String publicId, String systemId) {
+			return new InputSource(new StringReader(""));
+		}
+	}
+}
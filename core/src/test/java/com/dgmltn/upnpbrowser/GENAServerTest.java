@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2015 Doug Melton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dgmltn.upnpbrowser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class GENAServerTest {
+
+	private final BlockingQueue<String> mBodies = new ArrayBlockingQueue<>(10);
+	private GENAServer mServer;
+
+	@Before
+	public void setUp() throws Exception {
+		mServer = new GENAServer(new GENAServer.Listener() {
+			@Override
+			public boolean onNotify(String path, String sid, long seq, byte[] body) {
+				mBodies.add(new String(body));
+				return true;
+			}
+		});
+	}
+
+	@After
+	public void tearDown() {
+		mServer.close();
+	}
+
+	@Test
+	public void readsContentLengthBodies() throws Exception {
+		String response = send("Content-Length: 12\r\n\r\n<e:p>1</e:p>");
+
+		assertTrue(response, response.startsWith("HTTP/1.1 200"));
+		assertEquals("<e:p>1</e:p>", mBodies.take());
+	}
+
+	@Test
+	public void readsChunkedBodies() throws Exception {
+		String response = send("Transfer-Encoding: chunked\r\n\r\n"
+			+ "5\r\n<e:p>\r\n"
+			+ "7;ext=1\r\n1</e:p>\r\n"
+			+ "0\r\n"
+			+ "X-Trailer: ignored\r\n"
+			+ "\r\n");
+
+		assertTrue(response, response.startsWith("HTTP/1.1 200"));
+		assertEquals("<e:p>1</e:p>", mBodies.take());
+	}
+
+	@Test
+	public void rejectsUnknownTransferEncodings() throws Exception {
+		String response = send("Transfer-Encoding: gzip\r\n\r\n");
+
+		assertTrue(response, response.startsWith("HTTP/1.1 501"));
+		assertTrue(mBodies.isEmpty());
+	}
+
+	private String send(String rest) throws Exception {
+		Socket socket = new Socket(InetAddress.getLoopbackAddress(), mServer.getPort());
+		try {
+			OutputStream out = socket.getOutputStream();
+			out.write(("NOTIFY /event/1 HTTP/1.1\r\n"
+				+ "SID: uuid:s\r\n"
+				+ "SEQ: 0\r\n"
+				+ rest).getBytes("ISO-8859-1"));
+			out.flush();
+
+			InputStream in = socket.getInputStream();
+			ByteArrayOutputStream response = new ByteArrayOutputStream();
+			byte[] buffer = new byte[256];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				response.write(buffer, 0, read);
+			}
+			return response.toString("ISO-8859-1");
+		}
+		finally {
+			socket.close();
+		}
+	}
+}
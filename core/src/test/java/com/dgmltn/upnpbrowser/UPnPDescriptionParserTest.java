@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2015 Doug Melton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dgmltn.upnpbrowser;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class UPnPDescriptionParserTest {
+
+	private static final String DESCRIPTION = "<?xml version=\"1.0\"?>\n"
+		+ "<root xmlns=\"urn:schemas-upnp-org:device-1-0\" configId=\"7\">"
+		+ "<specVersion><major>1</major><minor>1</minor></specVersion>"
+		+ "<device>"
+		+ "<deviceType>urn:schemas-upnp-org:device:InternetGatewayDevice:1</deviceType>"
+		+ "<friendlyName>Router</friendlyName>"
+		+ "<UDN>uuid:root</UDN>"
+		+ "<iconList><icon><mimetype>image/png</mimetype><width>48</width><height>48</height>"
+		+ "<depth>24</depth><url>/icon.png</url></icon></iconList>"
+		+ "<serviceList><service>"
+		+ "<serviceType>urn:schemas-upnp-org:service:Layer3Forwarding:1</serviceType>"
+		+ "<serviceId>urn:upnp-org:serviceId:L3Forwarding1</serviceId>"
+		+ "<SCPDURL>/l3f.xml</SCPDURL>"
+		+ "</service></serviceList>"
+		+ "<deviceList><device>"
+		+ "<deviceType>urn:schemas-upnp-org:device:WANDevice:1</deviceType>"
+		+ "<friendlyName>WAN</friendlyName>"
+		+ "<UDN>uuid:wan</UDN>"
+		+ "</device></deviceList>"
+		+ "</device>"
+		+ "</root>\n";
+
+	@Test
+	public void parsesRootAndEmbeddedDevices() throws Exception {
+		UPnPDescription description = parse(DESCRIPTION);
+
+		assertEquals("7", description.getConfigId());
+		UPnPDescription.Device root = description.getDevice();
+		assertEquals("Router", root.getFriendlyName());
+		assertEquals("uuid:root", root.getUDN());
+		assertEquals(1, root.getIcons().size());
+		assertEquals("/icon.png", root.getIcons().get(0).getUrl());
+		assertEquals(48, root.getIcons().get(0).getWidth());
+		assertEquals(1, root.getServices().size());
+		assertEquals("/l3f.xml", root.getServices().get(0).getSCPDURL());
+		assertEquals(1, root.getDevices().size());
+		assertEquals("uuid:wan", root.getDevices().get(0).getUDN());
+	}
+
+	@Test
+	public void stopsReadingAfterTheRootDevice() throws Exception {
+		UPnPDescription description = parse(DESCRIPTION.replace("</root>", "<not even xml"));
+
+		assertEquals("uuid:root", description.getDevice().getUDN());
+	}
+
+	@Test
+	public void parsesAnEmptyRoot() throws Exception {
+		assertNull(parse("<root/>").getDevice());
+	}
+
+	@Test(expected = SAXException.class)
+	public void rejectsExternalEntities() throws Exception {
+		parse("<?xml version=\"1.0\"?>"
+			+ "<!DOCTYPE root [<!ENTITY name SYSTEM \"file:///etc/hosts\">]>"
+			+ "<root><device><friendlyName>&name;</friendlyName></device></root>");
+	}
+
+	private static UPnPDescription parse(String xml) throws IOException, SAXException {
+		InputStream in = new ByteArrayInputStream(xml.getBytes("UTF-8"));
+		return UPnPDescriptionParser.parse(in);
+	}
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2015 Doug Melton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dgmltn.upnpbrowser;
+
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dgmltn.upnpbrowser.simulator.DeviceSimulator;
+import com.squareup.okhttp.OkHttpClient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Searches a {@link DeviceSimulator} on loopback, which answers every search
+ * and sends half its replies twice.
+ */
+public class UPnPDeviceFinderTest {
+
+	private static final int DEVICES = 20;
+
+	private DeviceSimulator mSimulator;
+	private UPnPDeviceFinder mFinder;
+	private UPnPSearchStrategy mStrategy;
+
+	@Before
+	public void setUp() throws Exception {
+		UPnPLog.setLevel(UPnPLog.ERROR);
+		mSimulator = new DeviceSimulator.Builder()
+			.setDeviceCount(DEVICES)
+			.setDuplicateRate(0.5)
+			.build()
+			.start();
+		mFinder = new UPnPDeviceFinder(mSimulator.getLocalAddress(), mSimulator.getGroup());
+		mStrategy = new UPnPSearchStrategy.Builder()
+			.addTarget(UPnPSearchStrategy.ST_ROOT_DEVICE)
+			.setMX(1)
+			.build();
+	}
+
+	@After
+	public void tearDown() {
+		mSimulator.close();
+	}
+
+	@Test
+	public void findsEveryDeviceOnce() {
+		List<UPnPDevice> devices = mFinder.observe(mStrategy).toList().toBlocking().single();
+
+		assertTrue(mSimulator.getDuplicatesSent() > 0);
+		assertEquals(DEVICES, devices.size());
+		assertEquals(DEVICES, udns(devices).size());
+	}
+
+	@Test
+	public void findsEveryDeviceAgainOnTheNextScan() {
+		assertEquals(DEVICES, mFinder.observe(mStrategy).count().toBlocking().single().intValue());
+		assertEquals(DEVICES, mFinder.observe(mStrategy).count().toBlocking().single().intValue());
+	}
+
+	@Test
+	public void reportsAUSNOncePerLocation() {
+		// A dual-stack device answers each burst over IPv4 and IPv6
+		Set<UPnPDeviceFinder.Sighting> seen = new HashSet<>();
+		SSDPMessage v4 = reply("uuid:a::upnp:rootdevice", "http://192.168.1.2:49152/desc.xml");
+		SSDPMessage v6 = reply("uuid:a::upnp:rootdevice", "http://[fe80::2]:49152/desc.xml");
+
+		assertFalse(UPnPDeviceFinder.isDuplicate(seen, v4));
+		assertFalse(UPnPDeviceFinder.isDuplicate(seen, v6));
+		for (int burst = 0; burst < 3; burst++) {
+			assertTrue(UPnPDeviceFinder.isDuplicate(seen, v4));
+			assertTrue(UPnPDeviceFinder.isDuplicate(seen, v6));
+		}
+		assertFalse(UPnPDeviceFinder.isDuplicate(seen, reply("uuid:b::upnp:rootdevice", "http://192.168.1.2:49152/desc.xml")));
+	}
+
+	@Test
+	public void describesEveryDevice() {
+		UPnPDescriptionFetcher fetcher = new UPnPDescriptionFetcher(new OkHttpClient(), null);
+		List<UPnPDevice> devices = mFinder.observe(mStrategy)
+			.compose(fetcher)
+			.toList()
+			.toBlocking()
+			.single();
+
+		assertEquals(DEVICES, devices.size());
+		for (UPnPDevice device : devices) {
+			UPnPDescription description = device.getDescription();
+			assertNotNull(device.getUDN(), description);
+			assertEquals(device.getUDN(), description.getDevice().getUDN());
+			assertTrue(device.getFriendlyName().startsWith("Simulated "));
+		}
+	}
+
+	@Test
+	public void searchRoutesEveryDeviceToItsTarget() throws Exception {
+		UPnPSearch search = mFinder.search(mStrategy);
+		Future<List<UPnPDevice>> devices = search.observe(UPnPSearchStrategy.ST_ROOT_DEVICE)
+			.toList()
+			.toBlocking()
+			.toFuture();
+		search.start();
+
+		assertEquals(DEVICES, udns(devices.get(30, TimeUnit.SECONDS)).size());
+	}
+
+	private static SSDPMessage reply(String usn, String location) {
+		String response = "HTTP/1.1 200 OK\r\n"
+			+ "CACHE-CONTROL: max-age=1800\r\n"
+			+ "LOCATION: " + location + "\r\n"
+			+ "ST: upnp:rootdevice\r\n"
+			+ "USN: " + usn + "\r\n"
+			+ "\r\n";
+		SSDPMessage message = new SSDPMessage();
+		assertTrue(message.parse(ByteBuffer.wrap(response.getBytes())));
+		return message;
+	}
+
+	private static Set<String> udns(List<UPnPDevice> devices) {
+		Set<String> udns = new HashSet<>();
+		for (UPnPDevice device : devices) {
+			udns.add(device.getUDN());
+		}
+		return udns;
+	}
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2015 Doug Melton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dgmltn.upnpbrowser;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import rx.functions.Func1;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class UPnPDeviceRegistryTest {
+
+	private UPnPDeviceRegistry mRegistry;
+
+	@Before
+	public void setUp() {
+		mRegistry = new UPnPDeviceRegistry();
+	}
+
+	@After
+	public void tearDown() {
+		mRegistry.close();
+	}
+
+	@Test
+	public void registersOncePerUDN() {
+		mRegistry.register(device("uuid:a", "upnp:rootdevice", 1800));
+		mRegistry.register(device("uuid:a", "uuid:a", 1800));
+		mRegistry.register(device("uuid:b", "upnp:rootdevice", 1800));
+
+		assertEquals(2, mRegistry.getDevices().size());
+	}
+
+	@Test
+	public void expiresDevicesAfterTheirMaxAge() {
+		UPnPDevice device = device("uuid:a", "upnp:rootdevice", 1);
+		mRegistry.register(device);
+		mRegistry.register(device("uuid:b", "upnp:rootdevice", 1800));
+
+		assertSame(device, nextRemoval().getDevice());
+		assertEquals(1, mRegistry.getDevices().size());
+		assertEquals("uuid:b", mRegistry.getDevices().get(0).getUDN());
+	}
+
+	@Test
+	public void refreshExtendsTheLifetime() {
+		mRegistry.register(device("uuid:a", "upnp:rootdevice", 1));
+		assertTrue(mRegistry.refresh("uuid:a", 1800));
+		assertFalse(mRegistry.refresh("uuid:unknown", 1800));
+
+		// Due no earlier than a's original lifetime, and queued after it, so
+		// by the time it goes a's stale expiry has been passed over
+		UPnPDevice sentinel = device("uuid:sentinel", "upnp:rootdevice", 1);
+		mRegistry.register(sentinel);
+		assertSame(sentinel, nextRemoval().getDevice());
+
+		assertEquals(1, mRegistry.getDevices().size());
+		assertEquals("uuid:a", mRegistry.getDevices().get(0).getUDN());
+	}
+
+	@Test
+	public void closeCompletesObservers() {
+		mRegistry.register(device("uuid:a", "upnp:rootdevice", 1800));
+		Future<List<UPnPDeviceRegistry.Event>> events = mRegistry.observe().toList().toBlocking().toFuture();
+
+		mRegistry.close();
+
+		assertEquals(1, getQuietly(events).size());
+	}
+
+	@Test
+	public void removesOnByeBye() {
+		mRegistry.register(device("uuid:a", "upnp:rootdevice", 1800));
+		mRegistry.handle(new UPnPNotification(UPnPNotification.Type.BYEBYE, "uuid:a::upnp:rootdevice", "upnp:rootdevice", 1800, null));
+
+		assertTrue(mRegistry.getDevices().isEmpty());
+	}
+
+	private UPnPDeviceRegistry.Event nextRemoval() {
+		return mRegistry.observe()
+			.filter(new Func1<UPnPDeviceRegistry.Event, Boolean>() {
+				@Override
+				public Boolean call(UPnPDeviceRegistry.Event event) {
+					return event.getType() == UPnPDeviceRegistry.Event.Type.REMOVE;
+				}
+			})
+			.timeout(5, TimeUnit.SECONDS)
+			.toBlocking()
+			.first();
+	}
+
+	private static <T> T getQuietly(Future<T> future) {
+		try {
+			return future.get(5, TimeUnit.SECONDS);
+		}
+		catch (Exception e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	private static UPnPDevice device(String udn, String st, int maxAge) {
+		String usn = st.equals(udn) ? udn : udn + "::" + st;
+		String response = "HTTP/1.1 200 OK\r\n"
+			+ "CACHE-CONTROL: max-age=" + maxAge + "\r\n"
+			+ "LOCATION: http://127.0.0.1:49152/" + udn + ".xml\r\n"
+			+ "ST: " + st + "\r\n"
+			+ "USN: " + usn + "\r\n"
+			+ "\r\n";
+		SSDPMessage message = new SSDPMessage();
+		assertTrue(message.parse(ByteBuffer.wrap(response.getBytes())));
+		return UPnPDevice.getInstance(message);
+	}
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2015 Doug Melton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dgmltn.upnpbrowser;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class UPnPDeviceTest {
+
+	@Test
+	public void sortsByAnIPv4Location() {
+		UPnPDevice device = device("http://192.168.1.20:49152/desc.xml");
+
+		assertEquals(UPnPDevice.ADDRESS_IPV4, device.getAddressFamily());
+		assertEquals(0xc0a80114L, device.getAddressLow());
+	}
+
+	@Test
+	public void sortsByAnIPv6LocationWithAZone() {
+		UPnPDevice device = device("http://[fe80::1%nosuchinterface]:49152/desc.xml");
+
+		assertNotNull(device);
+		assertEquals(UPnPDevice.ADDRESS_IPV6, device.getAddressFamily());
+		assertEquals(0xfe80000000000000L, device.getAddressHigh());
+		assertEquals(1, device.getAddressLow());
+	}
+
+	@Test
+	public void leavesHostNamesUnresolved() {
+		UPnPDevice device = device("http://printer.invalid:80/desc.xml");
+
+		assertNotNull(device);
+		assertEquals(UPnPDevice.ADDRESS_UNRESOLVED, device.getAddressFamily());
+	}
+
+	@Test
+	public void parsesOnlyAddressLiterals() {
+		assertNotNull(UPnPDevice.parseAddressLiteral("10.0.0.1"));
+		assertNotNull(UPnPDevice.parseAddressLiteral("::1"));
+		assertNotNull(UPnPDevice.parseAddressLiteral("[::ffff:10.0.0.1]"));
+
+		assertNull(UPnPDevice.parseAddressLiteral("256.0.0.1"));
+		assertNull(UPnPDevice.parseAddressLiteral("10.0.0"));
+		assertNull(UPnPDevice.parseAddressLiteral("10..0.1"));
+		assertNull(UPnPDevice.parseAddressLiteral("1:2:3"));
+		assertNull(UPnPDevice.parseAddressLiteral("[host.invalid]"));
+		assertNull(UPnPDevice.parseAddressLiteral("host.invalid"));
+	}
+
+	private static UPnPDevice device(String location) {
+		String response = "HTTP/1.1 200 OK\r\n"
+			+ "LOCATION: " + location + "\r\n"
+			+ "ST: upnp:rootdevice\r\n"
+			+ "USN: uuid:a::upnp:rootdevice\r\n"
+			+ "\r\n";
+		SSDPMessage message = new SSDPMessage();
+		assertTrue(message.parse(ByteBuffer.wrap(response.getBytes())));
+		return UPnPDevice.getInstance(message);
+	}
+}
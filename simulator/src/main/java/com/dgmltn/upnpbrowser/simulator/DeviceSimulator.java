@@ -0,0 +1,505 @@
+/*
+ * Copyright (C) 2015 Doug Melton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dgmltn.upnpbrowser.simulator;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageIO;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Answers SSDP M-SEARCH requests on behalf of any number of virtual root
+ * devices, and serves their description documents, SCPDs and icons from an
+ * embedded HTTP server. Everything binds to one local address (loopback by
+ * default), so a scan of a thousand devices runs anywhere, without a network.
+ * <p>
+ * Replies behave like real devices: each one is delayed by a random time
+ * within the request's MX, may be lost, and may arrive twice. The counters
+ * show what was actually sent, so a client can tell simulated loss from its
+ * own.
+ */
+public class DeviceSimulator implements Closeable {
+
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+	private static final int MAX_DATAGRAM_SIZE = 2048;
+	private static final int MAX_AGE = 1800;
+
+	// Duplicates follow the original within this many milliseconds
+	private static final int DUPLICATE_DELAY_MILLIS = 100;
+
+	private static final byte[] SCPD = ("<?xml version=\"1.0\"?>\n"
+		+ "<scpd xmlns=\"urn:schemas-upnp-org:service-1-0\">"
+		+ "<specVersion><major>1</major><minor>1</minor></specVersion>"
+		+ "<actionList/><serviceStateTable/>"
+		+ "</scpd>\n").getBytes(ISO_8859_1);
+
+	private final InetAddress mLocalAddress;
+	private final InetSocketAddress mGroup;
+	private final NetworkInterface mInterface;
+	private final List<VirtualDevice> mDevices;
+	private final int mMaxMX;
+	private final double mLossRate;
+	private final double mDuplicateRate;
+	private final Random mRandom;
+	private final byte[] mIcon;
+
+	private DatagramSocket mSocket;
+	private HttpServer mHttpServer;
+	private ExecutorService mHttpExecutor;
+	private ScheduledExecutorService mReplyExecutor;
+	private Thread mThread;
+	private String mBaseUrl;
+	private volatile boolean mClosed;
+
+	private final AtomicInteger mSearches = new AtomicInteger();
+	private final AtomicInteger mRepliesSent = new AtomicInteger();
+	private final AtomicInteger mRepliesLost = new AtomicInteger();
+	private final AtomicInteger mDuplicatesSent = new AtomicInteger();
+	private final AtomicInteger mHttpRequests = new AtomicInteger();
+	private final AtomicLong mHttpBytes = new AtomicLong();
+
+	private DeviceSimulator(Builder builder) {
+		mLocalAddress = builder.mLocalAddress;
+		mGroup = builder.mGroup;
+		mInterface = builder.mInterface;
+		mMaxMX = builder.mMaxMX;
+		mLossRate = builder.mLossRate;
+		mDuplicateRate = builder.mDuplicateRate;
+		mRandom = new Random(builder.mSeed);
+
+		mDevices = new ArrayList<>(builder.mDeviceCount);
+		for (int i = 0; i < builder.mDeviceCount; i++) {
+			mDevices.add(new VirtualDevice(i));
+		}
+
+		mIcon = createIcon();
+	}
+
+	/**
+	 * Binds the SSDP socket and the HTTP server and starts answering. Returns
+	 * once both are ready.
+	 */
+	public DeviceSimulator start() throws IOException {
+		// Otherwise Nagle and delayed ACKs add 40 ms to most responses on loopback
+		if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+		}
+		mHttpServer = HttpServer.create(new InetSocketAddress(mLocalAddress, 0), 0);
+		mHttpExecutor = Executors.newFixedThreadPool(4, new NamedThreadFactory("ssdp-simulator-http"));
+		mHttpServer.setExecutor(mHttpExecutor);
+		mHttpServer.createContext("/device/", new DeviceHandler());
+		mHttpServer.start();
+		InetSocketAddress http = mHttpServer.getAddress();
+		mBaseUrl = "http://" + hostOf(http.getAddress()) + ":" + http.getPort();
+
+		if (mGroup != null && mGroup.getAddress().isMulticastAddress()) {
+			MulticastSocket socket = new MulticastSocket(mGroup.getPort());
+			// false enables loopback, so a searcher on this host hears us
+			socket.setLoopbackMode(false);
+			socket.joinGroup(mGroup, mInterface != null ? mInterface : NetworkInterface.getByInetAddress(mLocalAddress));
+			mSocket = socket;
+		}
+		else {
+			// Unicast M-SEARCH, on the given port or an ephemeral one
+			mSocket = new DatagramSocket(mGroup != null ? mGroup : new InetSocketAddress(mLocalAddress, 0));
+		}
+
+		mReplyExecutor = Executors.newScheduledThreadPool(2, new NamedThreadFactory("ssdp-simulator-reply"));
+
+		mThread = new NamedThreadFactory("ssdp-simulator").newThread(new Runnable() {
+			@Override
+			public void run() {
+				receive();
+			}
+		});
+		mThread.start();
+		return this;
+	}
+
+	/**
+	 * Where to send M-SEARCH requests: the multicast group, or the unicast
+	 * address the simulator is bound to.
+	 */
+	public InetSocketAddress getGroup() {
+		if (mGroup != null && mGroup.getAddress().isMulticastAddress()) {
+			return mGroup;
+		}
+		return new InetSocketAddress(mLocalAddress, mSocket.getLocalPort());
+	}
+
+	public InetAddress getLocalAddress() {
+		return mLocalAddress;
+	}
+
+	public int getDeviceCount() {
+		return mDevices.size();
+	}
+
+	public int getSearches() {
+		return mSearches.get();
+	}
+
+	/**
+	 * Replies actually sent, not counting duplicates or lost ones.
+	 */
+	public int getRepliesSent() {
+		return mRepliesSent.get();
+	}
+
+	public int getRepliesLost() {
+		return mRepliesLost.get();
+	}
+
+	public int getDuplicatesSent() {
+		return mDuplicatesSent.get();
+	}
+
+	public int getHttpRequests() {
+		return mHttpRequests.get();
+	}
+
+	public long getHttpBytes() {
+		return mHttpBytes.get();
+	}
+
+	@Override
+	public void close() {
+		mClosed = true;
+		if (mSocket != null) {
+			mSocket.close();
+		}
+		if (mReplyExecutor != null) {
+			mReplyExecutor.shutdownNow();
+		}
+		if (mHttpServer != null) {
+			mHttpServer.stop(0);
+		}
+		if (mHttpExecutor != null) {
+			mHttpExecutor.shutdownNow();
+		}
+		if (mThread != null) {
+			try {
+				mThread.join();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	////////////////////////////////////////////////////////////////////////////////
+	// SSDP
+	////////////////////////////////////////////////////////////////////////////////
+
+	private void receive() {
+		byte[] buf = new byte[MAX_DATAGRAM_SIZE];
+		DatagramPacket packet = new DatagramPacket(buf, buf.length);
+		while (!mClosed) {
+			try {
+				packet.setLength(buf.length);
+				mSocket.receive(packet);
+			}
+			catch (IOException e) {
+				// Closed
+				return;
+			}
+			String request = new String(buf, 0, packet.getLength(), ISO_8859_1);
+			if (request.regionMatches(true, 0, "M-SEARCH", 0, 8)) {
+				mSearches.incrementAndGet();
+				answer(request, packet.getSocketAddress());
+			}
+		}
+	}
+
+	/**
+	 * Schedules every device's replies to {@code request}. The random draws all
+	 * happen here, on the receive thread, so a seed gives repeatable runs.
+	 */
+	private void answer(String request, final SocketAddress source) {
+		String st = getHeader(request, "ST");
+		if (st == null) {
+			return;
+		}
+		int mx = parseMX(getHeader(request, "MX"));
+		int window = Math.min(mx, mMaxMX) * 1000;
+
+		for (VirtualDevice device : mDevices) {
+			String location = mBaseUrl + device.getPath() + "description.xml";
+			for (String target : device.getReplyTargets(st)) {
+				if (mRandom.nextDouble() < mLossRate) {
+					mRepliesLost.incrementAndGet();
+					continue;
+				}
+				final byte[] reply = device.getReply(target, location, MAX_AGE);
+				long delay = window > 0 ? mRandom.nextInt(window) : 0;
+				schedule(reply, source, delay, mRepliesSent);
+				if (mRandom.nextDouble() < mDuplicateRate) {
+					schedule(reply, source, delay + mRandom.nextInt(DUPLICATE_DELAY_MILLIS), mDuplicatesSent);
+				}
+			}
+		}
+	}
+
+	private void schedule(final byte[] reply, final SocketAddress destination, long delayMillis, final AtomicInteger counter) {
+		Runnable send = new Runnable() {
+			@Override
+			public void run() {
+				try {
+					mSocket.send(new DatagramPacket(reply, reply.length, destination));
+					counter.incrementAndGet();
+				}
+				catch (IOException e) {
+					// Closed, or the searcher has gone
+				}
+			}
+		};
+		try {
+			mReplyExecutor.schedule(send, delayMillis, TimeUnit.MILLISECONDS);
+		}
+		catch (RejectedExecutionException e) {
+			// Closed while answering
+		}
+	}
+
+	private static String getHeader(String request, String name) {
+		for (String line : request.split("\r\n")) {
+			int colon = line.indexOf(':');
+			if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase(name)) {
+				return line.substring(colon + 1).trim();
+			}
+		}
+		return null;
+	}
+
+	private static int parseMX(String value) {
+		try {
+			return value == null ? 1 : Math.max(0, Integer.parseInt(value));
+		}
+		catch (NumberFormatException e) {
+			return 1;
+		}
+	}
+
+	////////////////////////////////////////////////////////////////////////////////
+	// HTTP
+	////////////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Serves /device/N/description.xml, /device/N/scpd.xml and /device/N/icon.png.
+	 */
+	private class DeviceHandler implements HttpHandler {
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			mHttpRequests.incrementAndGet();
+			try {
+				String[] parts = exchange.getRequestURI().getPath().split("/");
+				VirtualDevice device = null;
+				if (parts.length == 4) {
+					try {
+						int index = Integer.parseInt(parts[2]);
+						device = index >= 0 && index < mDevices.size() ? mDevices.get(index) : null;
+					}
+					catch (NumberFormatException e) {
+						// 404 below
+					}
+				}
+
+				if (device == null || !"GET".equals(exchange.getRequestMethod())) {
+					exchange.sendResponseHeaders(404, -1);
+				}
+				else if ("description.xml".equals(parts[3])) {
+					send(exchange, "text/xml; charset=\"utf-8\"", device.getDescription());
+				}
+				else if ("scpd.xml".equals(parts[3])) {
+					send(exchange, "text/xml; charset=\"utf-8\"", SCPD);
+				}
+				else if ("icon.png".equals(parts[3])) {
+					send(exchange, "image/png", mIcon);
+				}
+				else {
+					exchange.sendResponseHeaders(404, -1);
+				}
+			}
+			finally {
+				exchange.close();
+			}
+		}
+
+		private void send(HttpExchange exchange, String contentType, byte[] body) throws IOException {
+			exchange.getResponseHeaders().set("Content-Type", contentType);
+			exchange.sendResponseHeaders(200, body.length);
+			OutputStream out = exchange.getResponseBody();
+			out.write(body);
+			out.close();
+			mHttpBytes.addAndGet(body.length);
+		}
+	}
+
+	////////////////////////////////////////////////////////////////////////////////
+	// Utils
+	////////////////////////////////////////////////////////////////////////////////
+
+	private static byte[] createIcon() {
+		BufferedImage image = new BufferedImage(48, 48, BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < 48; y++) {
+			for (int x = 0; x < 48; x++) {
+				image.setRGB(x, y, ((x / 8 + y / 8) % 2 == 0 ? Color.DARK_GRAY : Color.LIGHT_GRAY).getRGB());
+			}
+		}
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			ImageIO.write(image, "png", out);
+			return out.toByteArray();
+		}
+		catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String hostOf(InetAddress address) {
+		String host = address.getHostAddress();
+		return host.indexOf(':') >= 0 ? "[" + host + "]" : host;
+	}
+
+	private static class NamedThreadFactory implements ThreadFactory {
+		private final String mName;
+		private final AtomicInteger mCount = new AtomicInteger();
+
+		NamedThreadFactory(String name) {
+			mName = name;
+		}
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, mName + "-" + mCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+
+	public static class Builder {
+		private int mDeviceCount = 100;
+		private InetAddress mLocalAddress = InetAddress.getLoopbackAddress();
+		private InetSocketAddress mGroup;
+		private NetworkInterface mInterface;
+		private int mMaxMX = 5;
+		private double mLossRate;
+		private double mDuplicateRate;
+		private long mSeed = 1;
+
+		/**
+		 * Defaults to 100.
+		 */
+		public Builder setDeviceCount(int count) {
+			mDeviceCount = Math.max(0, count);
+			return this;
+		}
+
+		/**
+		 * The address the HTTP server (and a unicast SSDP socket) bind to.
+		 * Defaults to loopback.
+		 */
+		public Builder setLocalAddress(InetAddress address) {
+			mLocalAddress = address;
+			return this;
+		}
+
+		/**
+		 * A multicast group to join, e.g. 239.255.255.250:1900, or a unicast
+		 * address to listen on. Defaults to an ephemeral port on the local
+		 * address, which needs no multicast routing at all.
+		 */
+		public Builder setGroup(InetSocketAddress group) {
+			mGroup = group;
+			return this;
+		}
+
+		/**
+		 * The interface to join a multicast group on. Defaults to the interface
+		 * of the local address.
+		 */
+		public Builder setInterface(NetworkInterface intf) {
+			mInterface = intf;
+			return this;
+		}
+
+		/**
+		 * Caps the reply window at this many seconds, whatever the request's MX.
+		 * Defaults to 5, the UDA maximum.
+		 */
+		public Builder setMaxMX(int seconds) {
+			mMaxMX = Math.max(0, seconds);
+			return this;
+		}
+
+		/**
+		 * The chance of each reply being dropped, from 0 to 1. Defaults to 0.
+		 */
+		public Builder setLossRate(double rate) {
+			mLossRate = rate;
+			return this;
+		}
+
+		/**
+		 * The chance of each reply being sent twice, from 0 to 1. Defaults to 0.
+		 */
+		public Builder setDuplicateRate(double rate) {
+			mDuplicateRate = rate;
+			return this;
+		}
+
+		/**
+		 * Seeds the jitter, loss and duplicate draws. Defaults to 1.
+		 */
+		public Builder setSeed(long seed) {
+			mSeed = seed;
+			return this;
+		}
+
+		public DeviceSimulator build() {
+			return new DeviceSimulator(this);
+		}
+	}
+}
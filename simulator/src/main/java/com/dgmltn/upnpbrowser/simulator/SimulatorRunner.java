@@ -0,0 +1,326 @@
+/*
+ * Copyright (C) 2015 Doug Melton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dgmltn.upnpbrowser.simulator;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.dgmltn.upnpbrowser.UPnPDescriptionFetcher;
+import com.dgmltn.upnpbrowser.UPnPDevice;
+import com.dgmltn.upnpbrowser.UPnPDeviceFinder;
+import com.dgmltn.upnpbrowser.UPnPHttpClient;
+import com.dgmltn.upnpbrowser.UPnPLog;
+import com.dgmltn.upnpbrowser.UPnPMetrics;
+import com.dgmltn.upnpbrowser.UPnPMetricsRecorder;
+import com.dgmltn.upnpbrowser.UPnPSearchStrategy;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+
+import rx.functions.Action0;
+import rx.functions.Action1;
+
+/**
+ * Runs one UPnPDeviceFinder scan, with descriptions, against a
+ * DeviceSimulator on loopback, and reports how long it took, how many devices
+ * and replies made it, and how much heap the results hold, followed by the
+ * {@link UPnPMetricsRecorder} report. Exits with 1 if
+ * fewer than --min-found of the devices were found, so CI can gate on it.
+ *
+ *   --devices N        virtual devices (100)
+ *   --loss P           chance of each reply being lost (0)
+ *   --duplicates P     chance of each reply arriving twice (0)
+ *   --mx S             MX of the search (2)
+ *   --bursts N         M-SEARCH bursts (3)
+ *   --per-host N       concurrent description downloads per host (2)
+ *   --multicast G:P    search a multicast group on loopback instead of unicast
+ *   --icons            download every icon too
+ *   --seed N           seeds jitter, loss and duplicates (1)
+ *   --min-found F      fraction of devices that must be found (0)
+ *   --verbose          show the discovery log, down to every reply
+ */
+public final class SimulatorRunner {
+
+	private int mDevices = 100;
+	private double mLoss;
+	private double mDuplicates;
+	private int mMX = 2;
+	private int mBursts = 3;
+	private int mPerHost = UPnPDescriptionFetcher.DEFAULT_MAX_PER_HOST;
+	private InetSocketAddress mMulticast;
+	private boolean mIcons;
+	private long mSeed = 1;
+	private double mMinFound;
+	private boolean mVerbose;
+
+	private SimulatorRunner() {
+	}
+
+	public static void main(String[] args) throws IOException {
+		SimulatorRunner runner = new SimulatorRunner();
+		try {
+			runner.parse(args);
+		}
+		catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.exit(2);
+		}
+		System.exit(runner.run() ? 0 : 1);
+	}
+
+	private void parse(String[] args) {
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if ("--icons".equals(arg)) {
+				mIcons = true;
+				continue;
+			}
+			if ("--verbose".equals(arg)) {
+				mVerbose = true;
+				continue;
+			}
+			if (i + 1 >= args.length) {
+				throw new IllegalArgumentException("Missing value for " + arg);
+			}
+			String value = args[++i];
+			try {
+				switch (arg) {
+				case "--devices":
+					mDevices = Integer.parseInt(value);
+					break;
+				case "--loss":
+					mLoss = Double.parseDouble(value);
+					break;
+				case "--duplicates":
+					mDuplicates = Double.parseDouble(value);
+					break;
+				case "--mx":
+					mMX = Integer.parseInt(value);
+					break;
+				case "--bursts":
+					mBursts = Integer.parseInt(value);
+					break;
+				case "--per-host":
+					mPerHost = Integer.parseInt(value);
+					break;
+				case "--multicast":
+					int colon = value.lastIndexOf(':');
+					mMulticast = new InetSocketAddress(value.substring(0, colon), Integer.parseInt(value.substring(colon + 1)));
+					break;
+				case "--seed":
+					mSeed = Long.parseLong(value);
+					break;
+				case "--min-found":
+					mMinFound = Double.parseDouble(value);
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option " + arg);
+				}
+			}
+			catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+				throw new IllegalArgumentException("Bad value for " + arg + ": " + value);
+			}
+		}
+	}
+
+	private boolean run() throws IOException {
+		// Logging every reply would skew the timings, so only when asked
+		UPnPLog.setLevel(mVerbose ? UPnPLog.VERBOSE : UPnPLog.ERROR);
+		if (mVerbose) {
+			// java.util.logging's console handler drops anything below INFO
+			UPnPLog.setSink(new UPnPLog.Sink() {
+				@Override
+				public void log(int level, String tag, String message, Throwable throwable) {
+					System.err.println(tag + ": " + message);
+					if (throwable != null) {
+						throwable.printStackTrace();
+					}
+				}
+			});
+		}
+
+		UPnPMetricsRecorder metrics = new UPnPMetricsRecorder();
+		UPnPMetrics.setSink(metrics);
+
+		InetAddress loopback = InetAddress.getLoopbackAddress();
+		DeviceSimulator.Builder builder = new DeviceSimulator.Builder()
+			.setDeviceCount(mDevices)
+			.setLocalAddress(loopback)
+			.setLossRate(mLoss)
+			.setDuplicateRate(mDuplicates)
+			.setSeed(mSeed);
+		if (mMulticast != null) {
+			builder.setGroup(mMulticast).setInterface(NetworkInterface.getByInetAddress(loopback));
+		}
+
+		DeviceSimulator simulator = builder.build().start();
+		try {
+			boolean passed = scan(simulator, loopback);
+			System.out.println();
+			System.out.print(metrics);
+			return passed;
+		}
+		finally {
+			simulator.close();
+		}
+	}
+
+	private boolean scan(DeviceSimulator simulator, InetAddress loopback) {
+		final AtomicInteger received = new AtomicInteger();
+		UPnPSearchStrategy strategy = new UPnPSearchStrategy.Builder()
+			.setMX(mMX)
+			.setBursts(mBursts, 500)
+			.setListener(new UPnPSearchStrategy.Listener() {
+				@Override
+				public void onInterval(int interval, int replies) {
+					received.addAndGet(replies);
+				}
+			})
+			.build();
+
+		OkHttpClient client = UPnPHttpClient.create(null);
+		UPnPDescriptionFetcher fetcher = new UPnPDescriptionFetcher(client, null, null,
+			UPnPDescriptionFetcher.DEFAULT_MAX_CONCURRENT, mPerHost, UPnPDescriptionFetcher.DEFAULT_TIMEOUT_MILLIS);
+
+		long heapBefore = usedHeap();
+		final long start = System.nanoTime();
+		final AtomicLong firstFound = new AtomicLong();
+		final AtomicLong lastFound = new AtomicLong();
+		final AtomicLong scanned = new AtomicLong();
+
+		List<UPnPDevice> devices = new UPnPDeviceFinder(loopback, simulator.getGroup())
+			.observe(strategy)
+			.doOnNext(new Action1<UPnPDevice>() {
+				@Override
+				public void call(UPnPDevice device) {
+					long now = System.nanoTime();
+					firstFound.compareAndSet(0, now);
+					lastFound.set(now);
+				}
+			})
+			.doOnCompleted(new Action0() {
+				@Override
+				public void call() {
+					scanned.set(System.nanoTime());
+				}
+			})
+			.compose(fetcher)
+			.toList()
+			.toBlocking()
+			.single();
+		long described = System.nanoTime();
+
+		Set<String> udns = new HashSet<>();
+		int withDescription = 0;
+		for (UPnPDevice device : devices) {
+			udns.add(device.getUDN());
+			// Only the most recent descriptions stay in UPnPDetailStore, but the
+			// fields taken from them stay on the device
+			if (device.getFriendlyName() != null) {
+				withDescription++;
+			}
+		}
+
+		long iconsDone = described;
+		int icons = 0;
+		if (mIcons) {
+			icons = fetchIcons(client, devices);
+			iconsDone = System.nanoTime();
+		}
+
+		long heapAfter = usedHeap();
+		double found = mDevices == 0 ? 1 : (double) udns.size() / mDevices;
+
+		print("devices", mDevices);
+		// Read after the heap was measured, so the results were still reachable
+		print("emitted", devices.size());
+		print("found", udns.size() + String.format(Locale.US, " (%.1f%%)", found * 100));
+		print("described", withDescription);
+		if (mIcons) {
+			print("icons", icons);
+		}
+		print("searches received", simulator.getSearches());
+		print("replies sent", simulator.getRepliesSent());
+		print("replies lost (simulated)", simulator.getRepliesLost());
+		print("duplicates sent", simulator.getDuplicatesSent());
+		print("replies received", received.get());
+		print("replies dropped", Math.max(0, simulator.getRepliesSent() + simulator.getDuplicatesSent() - received.get()));
+		print("first device ms", millis(start, firstFound.get()));
+		print("last device ms", millis(start, lastFound.get()));
+		print("scan complete ms", millis(start, scanned.get()));
+		print("descriptions complete ms", millis(start, described));
+		if (mIcons) {
+			print("icons complete ms", millis(start, iconsDone));
+		}
+		print("http requests", simulator.getHttpRequests());
+		print("http bytes", simulator.getHttpBytes());
+		print("heap retained KB", (heapAfter - heapBefore) / 1024);
+		if (!udns.isEmpty()) {
+			print("heap per device bytes", (heapAfter - heapBefore) / udns.size());
+		}
+
+		return found >= mMinFound;
+	}
+
+	private static int fetchIcons(OkHttpClient client, List<UPnPDevice> devices) {
+		int fetched = 0;
+		for (UPnPDevice device : devices) {
+			if (device.getIconUrl() == null) {
+				continue;
+			}
+			try {
+				Response response = client.newCall(new Request.Builder().url(device.getIconUrl()).build()).execute();
+				try {
+					if (response.isSuccessful() && response.body().bytes().length > 0) {
+						fetched++;
+					}
+				}
+				finally {
+					response.body().close();
+				}
+			}
+			catch (IOException e) {
+				// Counted as missing
+			}
+		}
+		return fetched;
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	private static long millis(long start, long end) {
+		return end == 0 ? -1 : (end - start) / 1000000;
+	}
+
+	private static void print(String name, Object value) {
+		System.out.println(String.format(Locale.US, "%-26s %s", name + ":", value));
+	}
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2015 Doug Melton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dgmltn.upnpbrowser.simulator;
+
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+/**
+ * One simulated root device: what it answers an M-SEARCH with, and the
+ * description document it serves.
+ */
+class VirtualDevice {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final String NEWLINE = "\r\n";
+
+	static final String ST_ALL = "ssdp:all";
+	static final String ST_ROOT_DEVICE = "upnp:rootdevice";
+
+	// A mix of the device types seen on a typical home network
+	private static final String[][] KINDS = {
+		{ "urn:schemas-upnp-org:device:MediaRenderer:1", "Renderer", "urn:schemas-upnp-org:service:RenderingControl:1", "urn:upnp-org:serviceId:RenderingControl" },
+		{ "urn:schemas-upnp-org:device:MediaServer:1", "Media Server", "urn:schemas-upnp-org:service:ContentDirectory:1", "urn:upnp-org:serviceId:ContentDirectory" },
+		{ "urn:schemas-upnp-org:device:InternetGatewayDevice:1", "Gateway", "urn:schemas-upnp-org:service:Layer3Forwarding:1", "urn:upnp-org:serviceId:L3Forwarding1" },
+		{ "urn:schemas-upnp-org:device:Basic:1", "Device", "urn:schemas-upnp-org:service:Dummy:1", "urn:upnp-org:serviceId:Dummy" },
+	};
+
+	private final int mIndex;
+	private final String mUDN;
+	private final String[] mKind;
+
+	VirtualDevice(int index) {
+		mIndex = index;
+		mUDN = String.format(Locale.US, "uuid:5afe5afe-0000-1000-8000-%012x", index);
+		mKind = KINDS[index % KINDS.length];
+	}
+
+	String getUDN() {
+		return mUDN;
+	}
+
+	String getDeviceType() {
+		return mKind[0];
+	}
+
+	String getPath() {
+		return "/device/" + mIndex + "/";
+	}
+
+	/**
+	 * The search targets in an M-SEARCH for {@code st} this device answers,
+	 * one reply each. A real device answers ssdp:all once per root device,
+	 * UDN and type, so this does too.
+	 */
+	String[] getReplyTargets(String st) {
+		if (ST_ALL.equals(st)) {
+			return new String[] { ST_ROOT_DEVICE, mUDN, mKind[0] };
+		}
+		if (ST_ROOT_DEVICE.equals(st) || mUDN.equals(st) || mKind[0].equals(st)) {
+			return new String[] { st };
+		}
+		return new String[0];
+	}
+
+	byte[] getReply(String st, String location, int maxAge) {
+		StringBuilder reply = new StringBuilder(320);
+		reply.append("HTTP/1.1 200 OK").append(NEWLINE);
+		reply.append("CACHE-CONTROL: max-age=").append(maxAge).append(NEWLINE);
+		reply.append("EXT:").append(NEWLINE);
+		reply.append("LOCATION: ").append(location).append(NEWLINE);
+		reply.append("SERVER: Linux/3.10 UPnP/1.1 UPnPBrowserSimulator/1.0").append(NEWLINE);
+		reply.append("ST: ").append(st).append(NEWLINE);
+		reply.append("USN: ").append(st.equals(mUDN) ? mUDN : mUDN + "::" + st).append(NEWLINE);
+		reply.append("BOOTID.UPNP.ORG: 1").append(NEWLINE);
+		reply.append("CONFIGID.UPNP.ORG: 1").append(NEWLINE);
+		reply.append(NEWLINE);
+		return reply.toString().getBytes(UTF_8);
+	}
+
+	byte[] getDescription() {
+		String path = getPath();
+		StringBuilder xml = new StringBuilder(1024);
+		xml.append("<?xml version=\"1.0\"?>\n");
+		xml.append("<root xmlns=\"urn:schemas-upnp-org:device-1-0\" configId=\"1\">\n");
+		xml.append("<specVersion><major>1</major><minor>1</minor></specVersion>\n");
+		xml.append("<device>\n");
+		xml.append("<deviceType>").append(mKind[0]).append("</deviceType>\n");
+		xml.append("<friendlyName>Simulated ").append(mKind[1]).append(' ').append(mIndex).append("</friendlyName>\n");
+		xml.append("<manufacturer>UPnP Browser</manufacturer>\n");
+		xml.append("<modelName>Simulator</modelName>\n");
+		xml.append("<modelNumber>1</modelNumber>\n");
+		xml.append("<serialNumber>").append(mIndex).append("</serialNumber>\n");
+		xml.append("<UDN>").append(mUDN).append("</UDN>\n");
+		xml.append("<iconList><icon><mimetype>image/png</mimetype><width>48</width><height>48</height><depth>24</depth>");
+		xml.append("<url>").append(path).append("icon.png</url></icon></iconList>\n");
+		xml.append("<serviceList><service>");
+		xml.append("<serviceType>").append(mKind[2]).append("</serviceType>");
+		xml.append("<serviceId>").append(mKind[3]).append("</serviceId>");
+		xml.append("<SCPDURL>").append(path).append("scpd.xml</SCPDURL>");
+		xml.append("<controlURL>").append(path).append("control</controlURL>");
+		xml.append("<eventSubURL>").append(path).append("event</eventSubURL>");
+		xml.append("</service></serviceList>\n");
+		xml.append("<presentationURL>").append(path).append("</presentationURL>\n");
+		xml.append("</device>\n");
+		xml.append("</root>\n");
+		return xml.toString().getBytes(UTF_8);
+	}
+}